@@ -0,0 +1,55 @@
+package bench;
+
+import chip.AotCompiler;
+import chip.Chip;
+import chip.CompiledProgram;
+import chip.Engine;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ROMs compiled ahead of time by AotCompiler, against the switch interpreter
+ * and the compiled blocks. Scores are in instructions per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AotBenchmark {
+
+    static final int INSTRUCTIONS = 1000;
+
+    @Param({"loop", "arithmetic", "sprites"})
+    public String rom;
+
+    @Param({"SWITCH", "BLOCKS", "AOT"})
+    public String engine;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() throws IOException {
+        int[] program = Roms.byName(rom);
+        chip = Roms.load(program);
+        if (engine.equals("AOT")) {
+            Path dir = Files.createTempDirectory("chip8-aot");
+            Path classFile = new AotCompiler(Roms.toRom(program)).compile("AotBench", rom, dir);
+            chip.setCompiledProgram(CompiledProgram.load(classFile));
+        } else {
+            chip.setEngine(Engine.valueOf(engine));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public Chip run() {
+        chip.run(INSTRUCTIONS);
+        return chip;
+    }
+}
@@ -0,0 +1,55 @@
+package bench;
+
+import chip.BatchInterpreter;
+import chip.Chip;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many instances of the same ROM: one Chip.run() per instance against one
+ * BatchInterpreter for all of them.
+ * Scores are in lane instructions per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    static final int LANES = 1024;
+    static final int STEPS = 100;
+
+    @Param({"loop", "arithmetic", "sprites"})
+    public String rom;
+
+    @Param({"chips", "batch"})
+    public String mode;
+
+    private Chip[] chips;
+    private BatchInterpreter batch;
+
+    @Setup
+    public void setup() {
+        chips = new Chip[LANES];
+        for (int i = 0; i < LANES; i++) {
+            chips[i] = Roms.load(Roms.byName(rom));
+        }
+        batch = new BatchInterpreter(chips);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LANES * STEPS)
+    public Object run() {
+        if (mode.equals("batch")) {
+            batch.run(STEPS);
+            return batch;
+        }
+        for (Chip chip : chips) {
+            chip.run(STEPS);
+        }
+        return chips;
+    }
+}
@@ -0,0 +1,46 @@
+package bench;
+
+import chip.Chip;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of DXYN in lores (8xN sprites) and SCHIP hires (8x16 sprites).
+ * The ROM is 16 draws and a jump, so the score is dominated by the draws.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBenchmark {
+
+    static final int INSTRUCTIONS = 17 * 64;
+
+    @Param({"false", "true"})
+    public boolean hires;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.draws(hires, 15));
+        if (hires) {
+            //Eseguiamo 00FF e il setup, così il loop contiene solo disegni
+            for (int i = 0; i < 10; i++) {
+                chip.run();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public Chip draw() {
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            chip.run();
+        }
+        return chip;
+    }
+}
@@ -0,0 +1,43 @@
+package bench;
+
+import chip.Chip;
+import chip.Engine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chip.run() throughput on representative ROMs.
+ * Scores are in instructions per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+    static final int INSTRUCTIONS = 1000;
+
+    @Param({"loop", "arithmetic", "sprites"})
+    public String rom;
+
+    @Param({"SWITCH", "TABLE", "BLOCKS"})
+    public Engine engine;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.byName(rom));
+        chip.setEngine(engine);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public Chip run() {
+        chip.run(INSTRUCTIONS);
+        return chip;
+    }
+}
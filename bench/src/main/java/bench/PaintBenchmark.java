@@ -0,0 +1,78 @@
+package bench;
+
+import chip.Chip;
+import chip.FrameBuffer;
+import emu.ChipPanel;
+import emu.FramePipeline;
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of publishing a frame and drawing it with ChipPanel.paint into an
+ * offscreen image of the window size, after nothing, one sprite row or the
+ * whole screen changed.
+ * Runs with java.awt.headless, no window is opened.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+
+    @Param({"false", "true"})
+    public boolean hires;
+
+    @Param({"none", "sprite", "full"})
+    public String change;
+
+    private Chip chip;
+    private FramePipeline frames;
+    private ChipPanel panel;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.draws(hires, 15));
+        for (int i = 0; i < 200; i++) {
+            chip.run();
+        }
+        frames = new FramePipeline();
+        panel = new ChipPanel(frames);
+        image = new BufferedImage(640, 320, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        FrameBuffer display = chip.getFrameBuffer();
+        if (change.equals("sprite")) {
+            for (int y = 0; y < 15; y++) {
+                if (hires) {
+                    display.drawHires(20, 10 + y, 0xA5);
+                } else {
+                    display.drawLores(20, 10 + y, 0xA5);
+                }
+            }
+        } else if (change.equals("full")) {
+            //Ogni parola diversa da quella già disegnata
+            long[] rows = display.getRows();
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = ~rows[i];
+            }
+        }
+        frames.publish(display);
+        panel.paint(graphics);
+        return image;
+    }
+}
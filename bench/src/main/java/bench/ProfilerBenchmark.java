@@ -0,0 +1,49 @@
+package bench;
+
+import chip.Chip;
+import chip.Engine;
+import chip.Profiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of the profiler: counting every instruction, or one every 1000,
+ * compared to no profiler. Scores are in instructions per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfilerBenchmark {
+
+    static final int INSTRUCTIONS = 1000;
+
+    @Param({"off", "exact", "sampled"})
+    public String profiler;
+
+    @Param({"SWITCH", "BLOCKS"})
+    public Engine engine;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.ARITHMETIC);
+        chip.setEngine(engine);
+        if (profiler.equals("exact")) {
+            chip.setProfiler(new Profiler());
+        } else if (profiler.equals("sampled")) {
+            chip.setProfiler(new Profiler(1000));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public Chip run() {
+        chip.run(INSTRUCTIONS);
+        return chip;
+    }
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import chip.Chip;
+import chip.RewindBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of recording one frame in the rewind buffer and of restoring one,
+ * after a minute of a ROM drawing sprites.
+ * Run with -prof gc: both should allocate 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RewindBenchmark {
+
+    @Param({"false", "true"})
+    public boolean hires;
+
+    private Chip chip;
+    private RewindBuffer rewind;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.draws(hires, 15));
+        rewind = new RewindBuffer();
+        for (int frame = 0; frame < RewindBuffer.DEFAULT_FRAMES; frame++) {
+            chip.run(12);
+            chip.tickTimers();
+            rewind.push(chip);
+        }
+    }
+
+    @Benchmark
+    public RewindBuffer push() {
+        chip.run(12);
+        rewind.push(chip);
+        return rewind;
+    }
+
+    @Benchmark
+    public Chip restore() {
+        rewind.restore(chip);
+        return chip;
+    }
+}
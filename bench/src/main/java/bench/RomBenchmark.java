@@ -0,0 +1,70 @@
+package bench;
+
+import chip.Chip;
+import chip.Rom;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a ROM of the largest size: the old byte by byte read, the file read
+ * through the Rom cache, and the copy of an already loaded Rom (what a farm
+ * does for every instance).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RomBenchmark {
+
+    private File file;
+    private Rom rom;
+    private Chip chip;
+    private final char[] memory = new char[4096];
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] bytes = new byte[Rom.MAX_SIZE];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("chip8-bench", ".ch8");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+        rom = Rom.load(file.toPath());
+        chip = new Chip();
+        chip.init();
+    }
+
+    @Benchmark
+    public char[] byteByByte() throws IOException {
+        //Il vecchio Chip.loadProgram
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            int offset = 0;
+            while (input.available() > 0) {
+                memory[0x200 + offset] = (char) (input.readByte() & 0xFF);
+                offset++;
+            }
+        }
+        return memory;
+    }
+
+    @Benchmark
+    public Chip loadFile() {
+        chip.loadProgram(file);
+        return chip;
+    }
+
+    @Benchmark
+    public Chip loadRom() {
+        chip.loadProgram(rom);
+        return chip;
+    }
+}
@@ -0,0 +1,130 @@
+package bench;
+
+import chip.Chip;
+import chip.Rom;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Small hand-assembled ROMs that loop forever, one per kind of workload.
+ * None of them uses an unsupported opcode, so Chip.run() never exits.
+ */
+public final class Roms {
+
+    /**
+     * Tight counter loop: 7XNN, 3XNN, 1NNN
+     */
+    public static final int[] TIGHT_LOOP = {
+            0x60, 0x00,     //200: V0 = 0
+            0x70, 0x01,     //202: V0 += 1
+            0x30, 0x00,     //204: skip if V0 == 0
+            0x12, 0x02,     //206: jump 202
+            0x12, 0x00      //208: jump 200
+    };
+
+    /**
+     * ALU and BCD: 8XY*, FX33
+     */
+    public static final int[] ARITHMETIC = {
+            0x61, 0x07,     //200: V1 = 7
+            0x62, 0x03,     //202: V2 = 3
+            0xA3, 0x00,     //204: I = 300
+            0x75, 0x01,     //206: V5 += 1
+            0x80, 0x50,     //208: V0 = V5
+            0x80, 0x14,     //20A: V0 += V1
+            0x80, 0x25,     //20C: V0 -= V2
+            0x80, 0x06,     //20E: V0 >>= 1
+            0x80, 0x23,     //210: V0 ^= V2
+            0xF0, 0x33,     //212: BCD V0 at I
+            0x12, 0x04      //214: jump 204
+    };
+
+    /**
+     * Sprite heavy: one DXYN out of three instructions, moving around the screen
+     */
+    public static final int[] SPRITES = {
+            0xA0, 0x50,     //200: I = font "0"
+            0x62, 0x70,     //202: V2 = 0x70 (x mask)
+            0x63, 0x2F,     //204: V3 = 0x2F (y mask)
+            0xD0, 0x15,     //206: draw V0, V1, 5 rows
+            0x74, 0x09,     //208: V4 += 9
+            0x80, 0x40,     //20A: V0 = V4
+            0x80, 0x22,     //20C: V0 &= V2
+            0x75, 0x05,     //20E: V5 += 5
+            0x81, 0x50,     //210: V1 = V5
+            0x81, 0x32,     //212: V1 &= V3
+            0x12, 0x06      //214: jump 206
+    };
+
+    /**
+     * Almost only DXYN: sixteen draws, then a jump. Coordinates stay on screen in hires too.
+     */
+    public static int[] draws(boolean hires, int rows) {
+        int[] setup = {
+                0xA0, 0x50,     //I = font "0"
+                0x60, 0x00, 0x61, 0x00,
+                0x62, 0x10, 0x63, 0x08,
+                0x64, 0x20, 0x65, 0x10,
+                0x66, 0x30, 0x67, 0x18
+        };
+        int start = 0x200 + (hires ? 2 : 0) + setup.length;
+        int[] rom = new int[(hires ? 2 : 0) + setup.length + 16 * 2 + 2];
+        int i = 0;
+        if (hires) {
+            rom[i++] = 0x00;
+            rom[i++] = 0xFF;
+        }
+        for (int b : setup) {
+            rom[i++] = b;
+        }
+        for (int d = 0; d < 16; d++) {
+            int x = (d % 4) * 2;
+            int y = ((d / 4) * 2 + 1 + d) % 8;
+            rom[i++] = 0xD0 | x;
+            rom[i++] = (y << 4) | rows;
+        }
+        rom[i++] = 0x10 | (start >> 8);
+        rom[i] = start & 0xFF;
+        return rom;
+    }
+
+    public static int[] byName(String name) {
+        switch (name) {
+            case "loop":
+                return TIGHT_LOOP;
+            case "arithmetic":
+                return ARITHMETIC;
+            case "sprites":
+                return SPRITES;
+            default:
+                throw new IllegalArgumentException("Unknown ROM " + name);
+        }
+    }
+
+    /**
+     * Creates and initializes a Chip with the given ROM loaded at 0x200
+     */
+    public static Chip load(int[] rom) {
+        Chip chip = new Chip();
+        chip.init();
+        chip.setSeed(0);
+        chip.loadProgram(toRom(rom));
+        return chip;
+    }
+
+    public static Rom toRom(int[] rom) {
+        byte[] bytes = new byte[rom.length];
+        for (int i = 0; i < rom.length; i++) {
+            bytes[i] = (byte) rom[i];
+        }
+        try {
+            return Rom.of(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Roms() {
+    }
+}
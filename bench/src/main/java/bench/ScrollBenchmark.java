@@ -0,0 +1,54 @@
+package bench;
+
+import chip.Chip;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SCHIP scrolling (00CN, 00FB, 00FC) and mode switches (00FE, 00FF).
+ * Run with -prof gc: gc.alloc.rate.norm should be about 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScrollBenchmark {
+
+    static final int INSTRUCTIONS = 1000;
+
+    private static final int[] SCROLL = {
+            0x00, 0xFF,     //200: hires
+            0xA0, 0x50,     //202: I = font "0"
+            0xD0, 0x10,     //204: draw at 0, 0
+            0x00, 0xC1,     //206: scroll down 1
+            0x00, 0xFB,     //208: scroll right 4
+            0x00, 0xFC,     //20A: scroll left 4
+            0x12, 0x06      //20C: jump 206
+    };
+
+    private static final int[] MODE_SWITCH = {
+            0x00, 0xFE,     //200: lores
+            0x00, 0xFF,     //202: hires
+            0x12, 0x00      //204: jump 200
+    };
+
+    @Param({"scroll", "modeSwitch"})
+    public String rom;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(rom.equals("scroll") ? SCROLL : MODE_SWITCH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public Chip run() {
+        chip.run(INSTRUCTIONS);
+        return chip;
+    }
+}
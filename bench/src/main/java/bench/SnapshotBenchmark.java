@@ -0,0 +1,70 @@
+package bench;
+
+import chip.Chip;
+import chip.ChipState;
+import chip.StateCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory snapshots (save and restore every frame) and the binary encoding.
+ * Run with -prof gc: save and restore should allocate 0 B/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    private Chip chip;
+    private ChipState state;
+    private ChipState base;
+    private ByteArrayOutputStream bytes;
+    private DataOutputStream out;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.SPRITES);
+        chip.run(10_000);
+        state = new ChipState();
+        base = new ChipState();
+        chip.saveState(base);
+        bytes = new ByteArrayOutputStream(8192);
+        out = new DataOutputStream(bytes);
+    }
+
+    @Benchmark
+    public ChipState save() {
+        chip.saveState(state);
+        return state;
+    }
+
+    @Benchmark
+    public Chip saveAndRestore() {
+        chip.saveState(state);
+        chip.loadState(state);
+        return chip;
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        chip.saveState(state);
+        bytes.reset();
+        StateCodec.write(state, null, out);
+        return bytes.size();
+    }
+
+    @Benchmark
+    public int encodeAgainstBase() throws IOException {
+        chip.saveState(state);
+        bytes.reset();
+        StateCodec.write(state, base, out);
+        return bytes.size();
+    }
+}
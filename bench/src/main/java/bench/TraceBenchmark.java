@@ -0,0 +1,43 @@
+package bench;
+
+import chip.Chip;
+import chip.RingBufferTraceSink;
+import chip.TraceLevel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of opcode tracing into the in-memory ring buffer, compared to no tracing.
+ * Scores are in instructions per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceBenchmark {
+
+    static final int INSTRUCTIONS = 1000;
+
+    @Param({"OFF", "OPCODE"})
+    public TraceLevel level;
+
+    private Chip chip;
+
+    @Setup
+    public void setup() {
+        chip = Roms.load(Roms.ARITHMETIC);
+        chip.setTrace(level, new RingBufferTraceSink(1 << 16));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INSTRUCTIONS)
+    public Chip run() {
+        for (int i = 0; i < INSTRUCTIONS; i++) {
+            chip.run();
+        }
+        return chip;
+    }
+}
@@ -0,0 +1,373 @@
+package chip;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Compiles a ROM ahead of time into a Java class, a {@link CompiledProgram}.
+ *
+ * The control flow is followed from 0x200 through 1NNN, 2NNN and its return,
+ * and both ways of every skip; BNNN targets are computed at run time and left
+ * to the interpreter. The code found is split into basic blocks with the same
+ * rules as {@link BlockCompiler}, so a block never runs code that it has just
+ * written, and each block becomes a static method calling the Chip handlers
+ * with constant operands.
+ *
+ * The class is written as source in out/chip/Name.java and compiled next to it
+ * with the JDK compiler, then loaded with {@link CompiledProgram#load(Path)}.
+ *
+ * Usage: AotCompiler rom [--class Name] [--out dir]
+ */
+public final class AotCompiler {
+
+    //Metodi piccoli, così HotSpot li integra nello switch che li chiama
+    static final int MAX_BLOCK_LENGTH = 32;
+
+    /**
+     * A basic block: start address and handler calls
+     */
+    private static final class Block {
+        final int start;
+        final List<BlockCompiler.Call> calls = new ArrayList<>();
+        final List<Integer> opcodes = new ArrayList<>();
+
+        Block(int start) {
+            this.start = start;
+        }
+
+        int end() {
+            return start + calls.size() * 2;
+        }
+    }
+
+    private final Rom rom;
+    private final byte[] memory;
+    private final int end;
+
+    //Indirizzi raggiunti dal flusso come inizio di un'istruzione
+    private final boolean[] reachable = new boolean[4096];
+    private final TreeSet<Integer> leaders = new TreeSet<>();
+    private final List<Block> blocks = new ArrayList<>();
+    private int reachableCount;
+    private int compiledCount;
+
+    public AotCompiler(Rom rom) {
+        this.rom = rom;
+        this.memory = rom.getImage();
+        this.end = Rom.START + rom.getLength();
+        discover();
+        split();
+    }
+
+    //Segue il flusso da 0x200, segnando dove iniziano i blocchi
+    private void discover() {
+        Deque<Integer> work = new ArrayDeque<>();
+        work.push(Rom.START);
+        leaders.add(Rom.START);
+        while (!work.isEmpty()) {
+            int pc = work.pop();
+            //Fuori dalla ROM, o già visto: ci pensa l'interprete
+            if (pc < Rom.START || pc + 1 >= end || reachable[pc]) {
+                continue;
+            }
+            reachable[pc] = true;
+            reachableCount++;
+
+            int opcode = opcode(pc);
+            BlockCompiler.Call call = BlockCompiler.describe(opcode);
+            boolean endsBlock = call == null || call.endsBlock;
+            for (int next : successors(pc, opcode)) {
+                if (endsBlock) {
+                    leaders.add(next);
+                }
+                work.push(next);
+            }
+        }
+    }
+
+    /**
+     * Where execution can continue after the instruction at pc
+     */
+    private static int[] successors(int pc, int opcode) {
+        int nnn = opcode & 0x0FFF;
+        switch (opcode & 0xF000) {
+            case 0x0000:
+                if (opcode == 0x00EE || opcode == 0x00FD) {
+                    return new int[0];
+                }
+                return new int[]{pc + 2};
+            case 0x1000:
+                return new int[]{nnn};
+            case 0x2000:
+                return new int[]{nnn, pc + 2};
+            case 0x3000:
+            case 0x4000:
+            case 0x5000:
+                return new int[]{pc + 2, pc + 4};
+            case 0x9000:
+                return (opcode & 0xF) == 0 ? new int[]{pc + 2, pc + 4} : new int[]{pc + 2};
+            case 0xB000:
+                //Salto calcolato: l'interprete, poi si riparte dal blocco di arrivo
+                return new int[0];
+            case 0xE000:
+                return new int[]{pc + 2, pc + 4};
+            default:
+                return new int[]{pc + 2};
+        }
+    }
+
+    //Divide il codice raggiunto in blocchi, uno per leader
+    private void split() {
+        for (Integer leader = leaders.isEmpty() ? null : leaders.first(); leader != null; leader = leaders.higher(leader)) {
+            int pc = leader;
+            if (pc < Rom.START || pc + 1 >= end || !reachable[pc]) {
+                continue;
+            }
+            Block block = new Block(pc);
+            while (pc + 1 < end && reachable[pc] && (pc == block.start || !leaders.contains(pc))) {
+                if (block.calls.size() == MAX_BLOCK_LENGTH) {
+                    //Il seguito diventa un altro blocco
+                    leaders.add(pc);
+                    break;
+                }
+                int opcode = opcode(pc);
+                BlockCompiler.Call call = BlockCompiler.describe(opcode);
+                if (call == null) {
+                    break;
+                }
+                block.calls.add(call);
+                block.opcodes.add(opcode);
+                pc += 2;
+                if (call.endsBlock) {
+                    break;
+                }
+            }
+            if (!block.calls.isEmpty()) {
+                blocks.add(block);
+                compiledCount += block.calls.size();
+            }
+        }
+    }
+
+    private int opcode(int pc) {
+        return ((memory[pc] & 0xFF) << 8) | (memory[pc + 1] & 0xFF);
+    }
+
+    /**
+     * @return the source of a CompiledProgram subclass named className, in package chip
+     */
+    public String generate(String className, String romName) {
+        StringBuilder out = new StringBuilder();
+        out.append("package chip;\n\n");
+        out.append("/**\n");
+        out.append(" * Compiled by AotCompiler from ").append(romName).append(", do not edit.\n");
+        out.append(" * ROM SHA-256 ").append(rom.getHash()).append("\n");
+        out.append(String.format(" * %d blocks, %d of %d reachable instructions compiled%n",
+                blocks.size(), compiledCount, reachableCount));
+        out.append(" */\n");
+        out.append("public final class ").append(className).append(" extends CompiledProgram {\n\n");
+
+        out.append("    private static final String PROGRAM = \"\"");
+        for (int a = Rom.START; a < end; a++) {
+            if ((a - Rom.START) % 16 == 0) {
+                out.append("\n            + \"");
+            }
+            //Escape ottali: quelli unicode verrebbero tradotti prima di leggere la stringa
+            out.append(String.format("\\%03o", memory[a] & 0xFF));
+            if ((a - Rom.START) % 16 == 15 || a == end - 1) {
+                out.append('"');
+            }
+        }
+        out.append(";\n\n");
+
+        out.append("    private static final int[] CODE = {");
+        int rangeStart = -1;
+        int rangeEnd = -1;
+        List<String> ranges = new ArrayList<>();
+        for (Block block : blocks) {
+            if (block.start != rangeEnd) {
+                if (rangeStart >= 0) {
+                    ranges.add(String.format("0x%03X, 0x%03X", rangeStart, rangeEnd));
+                }
+                rangeStart = block.start;
+            }
+            rangeEnd = block.end();
+        }
+        if (rangeStart >= 0) {
+            ranges.add(String.format("0x%03X, 0x%03X", rangeStart, rangeEnd));
+        }
+        for (int i = 0; i < ranges.size(); i++) {
+            out.append(i % 4 == 0 ? "\n            " : " ").append(ranges.get(i)).append(',');
+        }
+        out.append("\n    };\n\n");
+
+        out.append("    public ").append(className).append("() {\n");
+        out.append("        super(PROGRAM, CODE);\n");
+        out.append("    }\n\n");
+
+        //Uno switch per pagina di 256 byte, così nessun metodo diventa troppo grande per il JIT
+        TreeSet<Integer> pages = new TreeSet<>();
+        for (Block block : blocks) {
+            pages.add(block.start >> 8);
+        }
+        out.append("    @Override\n");
+        out.append("    protected int execute(Chip chip, int pc, int budget) {\n");
+        out.append("        switch (pc >> 8) {\n");
+        for (int page : pages) {
+            out.append(String.format("            case 0x%X:%n", page));
+            out.append(String.format("                return page%X(chip, pc, budget);%n", page));
+        }
+        out.append("            default:\n");
+        out.append("                return 0;\n");
+        out.append("        }\n");
+        out.append("    }\n");
+
+        for (int page : pages) {
+            out.append(String.format("%n    private static int page%X(Chip chip, int pc, int budget) {%n", page));
+            out.append("        switch (pc) {\n");
+            for (Block block : blocks) {
+                if (block.start >> 8 != page) {
+                    continue;
+                }
+                int length = block.calls.size();
+                out.append(String.format("            case 0x%03X:%n", block.start));
+                if (length > 1) {
+                    out.append(String.format("                if (budget < %d) {%n", length));
+                    out.append("                    return 0;\n");
+                    out.append("                }\n");
+                }
+                out.append(String.format("                b%03X(chip);%n", block.start));
+                out.append(String.format("                return %d;%n", length));
+            }
+            out.append("            default:\n");
+            out.append("                return 0;\n");
+            out.append("        }\n");
+            out.append("    }\n");
+        }
+
+        for (Block block : blocks) {
+            out.append(String.format("%n    private static void b%03X(Chip chip) {%n", block.start));
+            for (int i = 0; i < block.calls.size(); i++) {
+                BlockCompiler.Call call = block.calls.get(i);
+                StringBuilder args = new StringBuilder();
+                for (int arg : call.args) {
+                    if (args.length() > 0) {
+                        args.append(", ");
+                    }
+                    args.append(arg > 9 ? String.format("0x%X", arg) : String.valueOf(arg));
+                }
+                out.append(String.format("        chip.%s(%s); //%03X: %04X%n",
+                        call.name, args, block.start + i * 2, block.opcodes.get(i)));
+            }
+            out.append("    }\n");
+        }
+        out.append("}\n");
+        return out.toString();
+    }
+
+    public int getBlocks() {
+        return blocks.size();
+    }
+
+    public int getReachableInstructions() {
+        return reachableCount;
+    }
+
+    public int getCompiledInstructions() {
+        return compiledCount;
+    }
+
+    /**
+     * Writes dir/chip/className.java and compiles it into dir/chip/className.class
+     *
+     * @return the class file
+     * @throws IOException if the source can't be written or doesn't compile
+     */
+    public Path compile(String className, String romName, Path dir) throws IOException {
+        Path packageDir = dir.resolve("chip");
+        Files.createDirectories(packageDir);
+        Path source = packageDir.resolve(className + ".java");
+        Files.write(source, generate(className, romName).getBytes(StandardCharsets.UTF_8));
+
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IOException("No Java compiler available, run with a JDK to compile " + source);
+        }
+        String classpath;
+        try {
+            classpath = Paths.get(Chip.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        int result = javac.run(null, null, null, "-cp", classpath, "-d", dir.toString(), source.toString());
+        if (result != 0) {
+            throw new IOException("Compilation of " + source + " failed");
+        }
+        return packageDir.resolve(className + ".class");
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: AotCompiler rom [--class Name] [--out dir]");
+            System.exit(1);
+        }
+        Path romFile = Paths.get(args[0]);
+        String className = null;
+        Path dir = Paths.get(".");
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--class":
+                    className = args[++i];
+                    break;
+                case "--out":
+                    dir = Paths.get(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (className == null) {
+            className = classNameOf(romFile.getFileName().toString());
+        }
+
+        try {
+            AotCompiler compiler = new AotCompiler(Rom.load(romFile));
+            Path classFile = compiler.compile(className, romFile.getFileName().toString(), dir);
+            System.out.println(String.format("%d blocks, %d of %d reachable instructions compiled",
+                    compiler.getBlocks(), compiler.getCompiledInstructions(), compiler.getReachableInstructions()));
+            System.out.println("Written " + classFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    //"space invaders.ch8" -> "AotSpaceInvaders"
+    static String classNameOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        StringBuilder name = new StringBuilder("Aot");
+        boolean upper = true;
+        for (char c : base.toCharArray()) {
+            if (Character.isLetterOrDigit(c) && c < 128) {
+                name.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            } else {
+                upper = true;
+            }
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,546 @@
+package chip;
+
+/**
+ * Runs many Chips in lockstep, keeping their registers as structure of arrays:
+ * V[register][lane], I[lane], pc[lane], the stack and the timers.
+ *
+ * At every step the lanes are grouped by pc and opcode. The opcode of a group
+ * is decoded once and, for the register, branch, stack and timer instructions,
+ * executed with one loop over the lanes of the group. When all the lanes agree
+ * the loop runs over contiguous array ranges, which C2 can turn into SIMD code.
+ * Draws, BCD, load/store and font instructions work on the memory and the
+ * display of each lane. Every other instruction (keys, SCHIP) is executed by the
+ * Chip of the lane, after copying V, I and pc of the lane into it and back:
+ * none of them uses the stack or the timers.
+ * After {@link #MAX_GROUPS} groups the rest of the lanes run one at a time.
+ *
+ * Memory, flag registers, keys and display stay in the Chips.
+ * The Chips must not be used directly between {@link #load()} and {@link #store()};
+ * the sound flag of the Chips is not raised while the batch runs.
+ */
+public class BatchInterpreter {
+
+    //Oltre questo numero di gruppi i lane rimasti vanno uno alla volta
+    static final int MAX_GROUPS = 8;
+
+    private final Chip[] chips;
+    private final byte[][] memories;
+    private final int lanes;
+
+    final int[][] V;
+    final int[][] stack;
+    final int[] I;
+    final int[] pc;
+    final int[] stackPointer;
+    //0-255, senza segno come i timer di Chip
+    final int[] delayTimer;
+    final int[] soundTimer;
+
+    private final boolean[] stopped;
+    private final int[] pending;
+    private final int[] group;
+    private final int[] allLanes;
+    private int running;
+
+    private long groupedSteps;
+    private long scalarSteps;
+
+    public BatchInterpreter(Chip[] chips) {
+        this.chips = chips;
+        lanes = chips.length;
+        memories = new byte[lanes][];
+        V = new int[16][lanes];
+        stack = new int[16][lanes];
+        I = new int[lanes];
+        pc = new int[lanes];
+        stackPointer = new int[lanes];
+        delayTimer = new int[lanes];
+        soundTimer = new int[lanes];
+        stopped = new boolean[lanes];
+        pending = new int[lanes];
+        group = new int[lanes];
+        allLanes = new int[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            allLanes[lane] = lane;
+        }
+        load();
+    }
+
+    /**
+     * Copies the registers of the Chips into the batch
+     */
+    public void load() {
+        running = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            chips[lane].storeRegisters(this, lane, true);
+            memories[lane] = chips[lane].getMemory();
+            stopped[lane] = chips[lane].isEmulationStopped();
+            if (!stopped[lane]) {
+                running++;
+            }
+        }
+    }
+
+    /**
+     * Copies the registers of the batch back into the Chips
+     */
+    public void store() {
+        for (int lane = 0; lane < lanes; lane++) {
+            chips[lane].loadRegisters(this, lane, true);
+        }
+    }
+
+    /**
+     * Executes steps instructions on every lane that has not stopped
+     */
+    public void run(int steps) {
+        for (int s = 0; s < steps; s++) {
+            step();
+        }
+    }
+
+    /**
+     * Ticks the timers of every lane, see {@link Chip#tickTimers()}
+     */
+    public void tickTimers() {
+        for (int lane = 0; lane < lanes; lane++) {
+            int sound = soundTimer[lane];
+            soundTimer[lane] = sound > 0 ? sound - 1 : sound;
+            int delay = delayTimer[lane];
+            delayTimer[lane] = delay > 0 ? delay - 1 : delay;
+        }
+    }
+
+    private void step() {
+        if (running == lanes && allAgree()) {
+            int opcode = opcode(0);
+            if (!executeAll(opcode)) {
+                execute(opcode, allLanes, lanes);
+            }
+            groupedSteps += lanes;
+            return;
+        }
+
+        int count = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            if (!stopped[lane]) {
+                pending[count++] = lane;
+            }
+        }
+
+        int groups = 0;
+        while (count > 0) {
+            if (groups == MAX_GROUPS) {
+                for (int i = 0; i < count; i++) {
+                    group[0] = pending[i];
+                    execute(opcode(pending[i]), group, 1);
+                }
+                scalarSteps += count;
+                return;
+            }
+
+            //Il primo lane rimasto decide pc e opcode del gruppo
+            int address = pc[pending[0]];
+            int opcode = opcode(pending[0]);
+            int size = 0;
+            int rest = 0;
+            for (int i = 0; i < count; i++) {
+                int lane = pending[i];
+                if (pc[lane] == address && opcode(lane) == opcode) {
+                    group[size++] = lane;
+                } else {
+                    pending[rest++] = lane;
+                }
+            }
+            count = rest;
+            groups++;
+
+            execute(opcode, group, size);
+            groupedSteps += size;
+        }
+    }
+
+    private int opcode(int lane) {
+        byte[] memory = memories[lane];
+        int address = pc[lane];
+        return ((memory[address] & 0xFF) << 8) | (memory[address + 1] & 0xFF);
+    }
+
+    /**
+     * @return true if all the lanes are at the pc of lane 0, with the same opcode
+     */
+    private boolean allAgree() {
+        int address = pc[0];
+        byte high = memories[0][address];
+        byte low = memories[0][address + 1];
+        for (int lane = 1; lane < lanes; lane++) {
+            if (pc[lane] != address) {
+                return false;
+            }
+            byte[] memory = memories[lane];
+            if (memory[address] != high || memory[address + 1] != low) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fast path when every lane runs the opcode: loops over whole arrays.
+     *
+     * @return false if the opcode has no fast path
+     */
+    private boolean executeAll(int opcode) {
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+        int[] vx = V[x];
+        int[] vy = V[y];
+        int[] vf = V[0xF];
+
+        switch (opcode & 0xF000) {
+            case 0x1000:
+                fill(pc, nnn);
+                return true;
+            case 0x3000:
+                for (int i = 0; i < lanes; i++) {
+                    pc[i] += vx[i] == nn ? 4 : 2;
+                }
+                return true;
+            case 0x4000:
+                for (int i = 0; i < lanes; i++) {
+                    pc[i] += vx[i] != nn ? 4 : 2;
+                }
+                return true;
+            case 0x6000:
+                fill(vx, nn);
+                break;
+            case 0x7000:
+                for (int i = 0; i < lanes; i++) {
+                    vx[i] = (vx[i] + nn) & 0xFF;
+                }
+                break;
+            case 0x8000:
+                switch (opcode & 0x000F) {
+                    case 0x0:
+                        System.arraycopy(vy, 0, vx, 0, lanes);
+                        break;
+                    case 0x1:
+                        for (int i = 0; i < lanes; i++) {
+                            vx[i] = (vx[i] | vy[i]) & 0xFF;
+                        }
+                        break;
+                    case 0x2:
+                        for (int i = 0; i < lanes; i++) {
+                            vx[i] = vx[i] & vy[i];
+                        }
+                        break;
+                    case 0x3:
+                        for (int i = 0; i < lanes; i++) {
+                            vx[i] = (vx[i] ^ vy[i]) & 0xFF;
+                        }
+                        break;
+                    case 0x4:
+                        for (int i = 0; i < lanes; i++) {
+                            vf[i] = vy[i] > 0xFF - vx[i] ? 1 : 0;
+                            vx[i] = (vx[i] + vy[i]) & 0xFF;
+                        }
+                        break;
+                    case 0x5:
+                        for (int i = 0; i < lanes; i++) {
+                            vf[i] = vx[i] > vy[i] ? 1 : 0;
+                            vx[i] = (vx[i] - vy[i]) & 0xFF;
+                        }
+                        break;
+                    default:
+                        return false;
+                }
+                break;
+            case 0xA000:
+                fill(I, nnn);
+                break;
+            default:
+                return false;
+        }
+        for (int i = 0; i < lanes; i++) {
+            pc[i] += 2;
+        }
+        return true;
+    }
+
+    private static void fill(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value;
+        }
+    }
+
+    /**
+     * Executes the opcode on the lanes listed in group, same semantics as {@link Chip#execute(int)}
+     */
+    private void execute(int opcode, int[] group, int size) {
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+        int[] vx = V[x];
+        int[] vy = V[y];
+        int[] vf = V[0xF];
+
+        switch (opcode & 0xF000) {
+            case 0x0000:
+                if (opcode == 0x00EE) {
+                    for (int i = 0; i < size; i++) {
+                        int lane = group[i];
+                        int sp = --stackPointer[lane];
+                        pc[lane] = stack[sp][lane] + 2;
+                    }
+                    return;
+                }
+                break;
+            case 0x1000:
+                for (int i = 0; i < size; i++) {
+                    pc[group[i]] = nnn;
+                }
+                return;
+            case 0x2000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    stack[stackPointer[lane]++][lane] = pc[lane];
+                    pc[lane] = nnn;
+                }
+                return;
+            case 0x3000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    pc[lane] += vx[lane] == nn ? 4 : 2;
+                }
+                return;
+            case 0x4000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    pc[lane] += vx[lane] != nn ? 4 : 2;
+                }
+                return;
+            case 0x5000:
+                if ((opcode & 0x000F) == 0) {
+                    for (int i = 0; i < size; i++) {
+                        int lane = group[i];
+                        pc[lane] += vx[lane] == vy[lane] ? 4 : 2;
+                    }
+                    return;
+                }
+                break;
+            case 0x6000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    vx[lane] = nn;
+                    pc[lane] += 2;
+                }
+                return;
+            case 0x7000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    vx[lane] = (vx[lane] + nn) & 0xFF;
+                    pc[lane] += 2;
+                }
+                return;
+            case 0x8000:
+                if (alu(opcode & 0x000F, vx, vy, vf, group, size)) {
+                    return;
+                }
+                break;
+            case 0x9000:
+                if ((opcode & 0x000F) == 0) {
+                    for (int i = 0; i < size; i++) {
+                        int lane = group[i];
+                        pc[lane] += vx[lane] != vy[lane] ? 4 : 2;
+                    }
+                    return;
+                }
+                break;
+            case 0xA000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    I[lane] = nnn;
+                    pc[lane] += 2;
+                }
+                return;
+            case 0xD000:
+                for (int i = 0; i < size; i++) {
+                    int lane = group[i];
+                    boolean collision = chips[lane].drawSprite(vx[lane], vy[lane], I[lane], opcode & 0x000F);
+                    vf[lane] = collision ? 1 : 0;
+                    pc[lane] += 2;
+                }
+                return;
+            case 0xF000:
+                switch (nn) {
+                    case 0x07:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            vx[lane] = delayTimer[lane];
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x15:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            delayTimer[lane] = vx[lane];
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x18:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            soundTimer[lane] = vx[lane];
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x1E:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            I[lane] = (I[lane] + vx[lane]) & 0xFFFF;
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x29:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            I[lane] = (0x050 + vx[lane] * 5) & 0xFFFF;
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x33:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            byte[] memory = memories[lane];
+                            int value = vx[lane];
+                            int address = I[lane];
+                            memory[address] = (byte) (value / 100);
+                            memory[address + 1] = (byte) (value / 10 % 10);
+                            memory[address + 2] = (byte) (value % 10);
+                            chips[lane].codeWritten(address, 3);
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x55:
+                        //Come in Chip: VX escluso, I avanza solo fuori dal modo SCHIP
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            byte[] memory = memories[lane];
+                            int address = I[lane];
+                            for (int r = 0; r < x; r++) {
+                                memory[address + r] = (byte) V[r][lane];
+                            }
+                            chips[lane].codeWritten(address, x);
+                            if (!chips[lane].isInSuperMode()) {
+                                I[lane] = (address + x + 1) & 0xFFFF;
+                            }
+                            pc[lane] += 2;
+                        }
+                        return;
+                    case 0x65:
+                        for (int i = 0; i < size; i++) {
+                            int lane = group[i];
+                            byte[] memory = memories[lane];
+                            int address = I[lane];
+                            for (int r = 0; r <= x; r++) {
+                                V[r][lane] = memory[address + r] & 0xFF;
+                            }
+                            if (!chips[lane].isInSuperMode()) {
+                                I[lane] = (address + x + 1) & 0xFFFF;
+                            }
+                            pc[lane] += 2;
+                        }
+                        return;
+                    default:
+                        break;
+                }
+                break;
+            default:
+                break;
+        }
+
+        //Il resto lo esegue il Chip del lane
+        for (int i = 0; i < size; i++) {
+            int lane = group[i];
+            Chip chip = chips[lane];
+            chip.loadRegisters(this, lane, false);
+            chip.execute(opcode);
+            chip.storeRegisters(this, lane, false);
+            if (chip.isEmulationStopped()) {
+                stopped[lane] = true;
+                running--;
+            }
+        }
+    }
+
+    /**
+     * 8XYN on the lanes of group. VF is written before VX is computed, like in
+     * Chip, which matters when X or Y is F.
+     *
+     * @return false if N is not handled here
+     */
+    private boolean alu(int n, int[] vx, int[] vy, int[] vf, int[] group, int size) {
+        for (int i = 0; i < size; i++) {
+            int lane = group[i];
+            switch (n) {
+                case 0x0:
+                    vx[lane] = vy[lane];
+                    break;
+                case 0x1:
+                    vx[lane] = (vx[lane] | vy[lane]) & 0xFF;
+                    break;
+                case 0x2:
+                    vx[lane] = vx[lane] & vy[lane];
+                    break;
+                case 0x3:
+                    vx[lane] = (vx[lane] ^ vy[lane]) & 0xFF;
+                    break;
+                case 0x4:
+                    vf[lane] = vy[lane] > 0xFF - vx[lane] ? 1 : 0;
+                    vx[lane] = (vx[lane] + vy[lane]) & 0xFF;
+                    break;
+                case 0x5:
+                    vf[lane] = vx[lane] > vy[lane] ? 1 : 0;
+                    vx[lane] = (vx[lane] - vy[lane]) & 0xFF;
+                    break;
+                case 0x6:
+                    vf[lane] = vx[lane] & 0x1;
+                    vx[lane] = vx[lane] >> 1;
+                    break;
+                case 0x7:
+                    vf[lane] = vy[lane] > vx[lane] ? 1 : 0;
+                    vx[lane] = (vy[lane] - vx[lane]) & 0xFF;
+                    break;
+                case 0xE:
+                    vf[lane] = vx[lane] >> 7;
+                    vx[lane] = (vx[lane] << 1) & 0xFF;
+                    break;
+                default:
+                    return false;
+            }
+            pc[lane] += 2;
+        }
+        return true;
+    }
+
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * @return lane steps executed in a group decoded once
+     */
+    public long getGroupedSteps() {
+        return groupedSteps;
+    }
+
+    /**
+     * @return lane steps executed one lane at a time, after too many groups
+     */
+    public long getScalarSteps() {
+        return scalarSteps;
+    }
+}
@@ -0,0 +1,57 @@
+package chip;
+
+import java.io.*;
+
+/**
+ * Writes the trace to a file in a compact binary format.
+ *
+ * Every record starts with a tag byte:
+ * - RECORD_OPCODE: pc (u16), opcode (u16)
+ * - RECORD_MESSAGE: message (modified UTF-8, as written by DataOutputStream)
+ */
+public class BinaryFileTraceSink implements TraceSink, Closeable {
+
+    public static final int RECORD_OPCODE = 0;
+    public static final int RECORD_MESSAGE = 1;
+
+    private final DataOutputStream output;
+
+    public BinaryFileTraceSink(File file) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    @Override
+    public void opcode(int pc, int opcode) {
+        try {
+            output.writeByte(RECORD_OPCODE);
+            output.writeShort(pc);
+            output.writeShort(opcode);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void message(String message) {
+        try {
+            output.writeByte(RECORD_MESSAGE);
+            output.writeUTF(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,413 @@
+package chip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles basic blocks of CHIP-8 code into JVM classes.
+ *
+ * A block starts at a pc and ends at the first instruction that may not continue
+ * at pc + 2: jumps, calls, returns, skips, FX0A, 00FD. Instructions that write
+ * memory (FX33, FX55, 9XY3, FX94) also end a block, so a block never runs code
+ * that it has just overwritten.
+ *
+ * Every block becomes a hidden class implementing {@link Instruction}, whose
+ * execute() calls the Chip handlers one after the other with constant operands.
+ * The code is straight-line, so the class needs no stack map frames and HotSpot
+ * can inline all the handlers into it.
+ * Classes are shared by all the Chip instances, keyed by the opcodes of the block.
+ * The cache keeps the {@link #MAX_CLASSES} most recently used ones: the others
+ * are unloaded once no Chip refers to them, so self-modifying ROMs and long
+ * runs over many ROMs don't fill the metaspace.
+ */
+final class BlockCompiler {
+
+    static final int MAX_BLOCK_LENGTH = 64;
+
+    static final int MAX_CLASSES = 4096;
+
+    //LRU, sincronizzata sulla mappa: la si tocca solo quando un Chip compila un blocco
+    private static final Map<String, Instruction> CLASSES = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Instruction> eldest) {
+            return size() > MAX_CLASSES;
+        }
+    };
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * A compiled block and the number of CHIP-8 instructions it executes
+     */
+    static final class Block {
+        final Instruction code;
+        final int length;
+
+        Block(Instruction code, int length) {
+            this.code = code;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Handler call for one opcode, also used by {@link AotCompiler}
+     */
+    static final class Call {
+        String name;
+        int[] args;
+        boolean endsBlock;
+    }
+
+    /**
+     * @return the block starting at pc, or null if the instruction at pc can't be compiled
+     */
+    static Block compile(byte[] memory, int pc) {
+        List<Call> calls = new ArrayList<>();
+        StringBuilder key = new StringBuilder();
+        int address = pc;
+        while (calls.size() < MAX_BLOCK_LENGTH && address + 1 < memory.length) {
+            int opcode = ((memory[address] & 0xFF) << 8) | (memory[address + 1] & 0xFF);
+            Call call = describe(opcode);
+            if (call == null) {
+                break;
+            }
+            calls.add(call);
+            key.append(Integer.toHexString(opcode)).append(' ');
+            address += 2;
+            if (call.endsBlock) {
+                break;
+            }
+        }
+        if (calls.isEmpty()) {
+            return null;
+        }
+
+        String name = key.toString();
+        Instruction code;
+        synchronized (CLASSES) {
+            code = CLASSES.get(name);
+        }
+        if (code == null) {
+            //Definita fuori dal lock: due Chip possono compilare lo stesso blocco,
+            //resta la prima classe
+            Instruction defined = define(calls);
+            synchronized (CLASSES) {
+                code = CLASSES.putIfAbsent(name, defined);
+            }
+            if (code == null) {
+                code = defined;
+            }
+        }
+        return new Block(code, calls.size());
+    }
+
+    /**
+     * Same decoding as {@link Chip#execute(int)}.
+     * Returns null for the opcodes that are left to the interpreter.
+     */
+    static Call describe(int opcode) {
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int n = opcode & 0x000F;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+
+        switch (opcode & 0xF000) {
+            case 0x0000:
+                switch (opcode) {
+                    case 0x00E0:
+                        return call("op00E0", false);
+                    case 0x00EE:
+                        return call("op00EE", true);
+                    case 0x00FB:
+                        return call("op00FB", false);
+                    case 0x00FC:
+                        return call("op00FC", false);
+                    case 0x00FE:
+                        return call("op00FE", false);
+                    case 0x00FF:
+                        return call("op00FF", false);
+                    default:
+                        //00CN lavora anche con opcode 0x0XCN, 00FD ferma l'emulazione:
+                        //li lasciamo all'interprete
+                        return null;
+                }
+            case 0x1000:
+                return call("op1NNN", true, nnn);
+            case 0x2000:
+                return call("op2NNN", true, nnn);
+            case 0x3000:
+                return call("op3XNN", true, x, nn);
+            case 0x4000:
+                return call("op4XNN", true, x, nn);
+            case 0x5000:
+                if (n > 3) {
+                    return null;
+                }
+                return call("op5XY" + n, true, x, y);
+            case 0x6000:
+                return call("op6XNN", false, x, nn);
+            case 0x7000:
+                return call("op7XNN", false, x, nn);
+            case 0x8000:
+                switch (n) {
+                    case 0x6:
+                        return call("op8XY6", false, x);
+                    case 0xE:
+                        return call("op8XYE", false, x);
+                    default:
+                        if (n > 7) {
+                            return null;
+                        }
+                        return call("op8XY" + n, false, x, y);
+                }
+            case 0x9000:
+                switch (n) {
+                    case 0x0:
+                        return call("op9XY0", true, x, y);
+                    case 0x1:
+                        return call("op9XY1", false, x, y);
+                    case 0x2:
+                        return call("op9XY2", false, x, y);
+                    case 0x3:
+                        return call("op9XY3", true, x, y);
+                    default:
+                        return null;
+                }
+            case 0xA000:
+                return call("opANNN", false, nnn);
+            case 0xB000:
+                return call("opBNNN", true, nnn);
+            case 0xC000:
+                return call("opCXNN", false, x, nn);
+            case 0xD000:
+                return call("opDXYN", false, x, y, n);
+            case 0xE000:
+                switch (nn) {
+                    case 0x9E:
+                        return call("opEX9E", true, x);
+                    case 0xA1:
+                        return call("opEXA1", true, x);
+                    default:
+                        return null;
+                }
+            case 0xF000:
+                switch (nn) {
+                    case 0x07:
+                        return call("opFX07", false, x);
+                    case 0x15:
+                        return call("opFX15", false, x);
+                    case 0x18:
+                        return call("opFX18", false, x);
+                    case 0x1E:
+                        return call("opFX1E", false, x);
+                    case 0x29:
+                        return call("opFX29", false, x);
+                    case 0x33:
+                        return call("opFX33", true, x);
+                    case 0x55:
+                        return call("opFX55", true, x);
+                    case 0x65:
+                        return call("opFX65", false, x);
+                    case 0x75:
+                        return call("opFX75", false, x);
+                    case 0x85:
+                        return call("opFX85", false, x);
+                    case 0x94:
+                        return call("opFX94", true, x);
+                    default:
+                        //FX0A puo' non avanzare il pc, resta all'interprete
+                        return null;
+                }
+            default:
+                return null;
+        }
+    }
+
+    private static Call call(String name, boolean endsBlock, int... args) {
+        Call call = new Call();
+        call.name = name;
+        call.args = args;
+        call.endsBlock = endsBlock;
+        return call;
+    }
+
+    private static Instruction define(List<Call> calls) {
+        try {
+            byte[] bytes = new ClassWriter().write(calls);
+            Class<?> type = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+            return (Instruction) type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't load compiled block", e);
+        }
+    }
+
+    /**
+     * Minimal class file writer for the block classes:
+     * a public constructor and execute(Chip), no branches, no fields.
+     */
+    private static final class ClassWriter {
+
+        private static final int ACC_PUBLIC = 0x0001;
+        private static final int ACC_FINAL = 0x0010;
+        private static final int ACC_SUPER = 0x0020;
+
+        private static final int ALOAD_0 = 0x2A;
+        private static final int ALOAD_1 = 0x2B;
+        private static final int ICONST_0 = 0x03;
+        private static final int BIPUSH = 0x10;
+        private static final int SIPUSH = 0x11;
+        private static final int INVOKEVIRTUAL = 0xB6;
+        private static final int INVOKESPECIAL = 0xB7;
+        private static final int RETURN = 0xB1;
+
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int poolCount = 1;
+
+        byte[] write(List<Call> calls) {
+            try {
+                int thisClass = classRef("chip/CompiledBlock");
+                int superClass = classRef("java/lang/Object");
+                int instruction = classRef("chip/Instruction");
+                int objectInit = methodRef("java/lang/Object", "<init>", "()V");
+                int codeName = utf8("Code");
+                int initName = utf8("<init>");
+                int initDescriptor = utf8("()V");
+                int executeName = utf8("execute");
+                int executeDescriptor = utf8("(Lchip/Chip;)V");
+
+                ByteArrayOutputStream execute = new ByteArrayOutputStream();
+                int maxStack = 1;
+                for (Call call : calls) {
+                    execute.write(ALOAD_1);
+                    for (int arg : call.args) {
+                        push(execute, arg);
+                    }
+                    int method = methodRef("chip/Chip", call.name, descriptor(call.args.length));
+                    execute.write(INVOKEVIRTUAL);
+                    execute.write(method >> 8);
+                    execute.write(method);
+                    maxStack = Math.max(maxStack, 1 + call.args.length);
+                }
+                execute.write(RETURN);
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(61);
+                out.writeShort(poolCount);
+                out.write(pool.toByteArray());
+                out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(instruction);
+                out.writeShort(0);
+
+                out.writeShort(2);
+                byte[] init = {ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+                method(out, initName, initDescriptor, codeName, 1, 1, init);
+                method(out, executeName, executeDescriptor, codeName, maxStack, 2, execute.toByteArray());
+
+                out.writeShort(0);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static void method(DataOutputStream out, int name, int descriptor, int codeName,
+                                   int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        private static void push(ByteArrayOutputStream code, int value) {
+            if (value <= 5) {
+                code.write(ICONST_0 + value);
+            } else if (value <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(value);
+            } else {
+                code.write(SIPUSH);
+                code.write(value >> 8);
+                code.write(value);
+            }
+        }
+
+        private static String descriptor(int args) {
+            StringBuilder descriptor = new StringBuilder("(");
+            for (int i = 0; i < args; i++) {
+                descriptor.append('I');
+            }
+            return descriptor.append(")V").toString();
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = entries.get("U" + value);
+            if (index == null) {
+                poolOut.writeByte(1);
+                poolOut.writeUTF(value);
+                index = poolCount++;
+                entries.put("U" + value, index);
+            }
+            return index;
+        }
+
+        private int classRef(String name) throws IOException {
+            int nameIndex = utf8(name);
+            Integer index = entries.get("C" + name);
+            if (index == null) {
+                poolOut.writeByte(7);
+                poolOut.writeShort(nameIndex);
+                index = poolCount++;
+                entries.put("C" + name, index);
+            }
+            return index;
+        }
+
+        private int methodRef(String owner, String name, String descriptor) throws IOException {
+            String key = "M" + owner + "." + name + descriptor;
+            Integer index = entries.get(key);
+            if (index == null) {
+                int ownerIndex = classRef(owner);
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                poolOut.writeByte(12);
+                poolOut.writeShort(nameIndex);
+                poolOut.writeShort(descriptorIndex);
+                int nameAndType = poolCount++;
+                poolOut.writeByte(10);
+                poolOut.writeShort(ownerIndex);
+                poolOut.writeShort(nameAndType);
+                index = poolCount++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    private BlockCompiler() {
+    }
+}
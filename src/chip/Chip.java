@@ -1,21 +1,24 @@
 package chip;
 
 import java.io.*;
-import java.util.Random;
+import java.util.Arrays;
 
 public class Chip {
 
-    //Memoria del Chip8
-    private char[] memory;
+    //Memoria del Chip8, un byte per cella: si legge sempre con & 0xFF
+    private byte[] memory;
+    //true finché memory è l'immagine di una Rom condivisa con altri Chip:
+    //la prima scrittura la copia (vedi writableMemory)
+    private boolean memoryShared;
 
-    //I registri del Chip8
-    private char[] V;
+    //I registri del Chip8, 8 bit senza segno: si leggono sempre con & 0xFF
+    private byte[] V;
 
     //I flag registers del SChip8
-    private char[] flag;
+    private byte[] flag;
 
-    //Puntatore agli indirizzi
-    private short I;
+    //Puntatore agli indirizzi, 16 bit senza segno
+    private int I;
 
     //Program counter
     private char pc;
@@ -23,24 +26,61 @@ public class Chip {
     private char[] stack;
     private int stackPointer;
 
-    private byte delay_timer;
-    private byte sound_timer;
+    //0-255, senza segno
+    private int delay_timer;
+    private int sound_timer;
 
-    private byte[] keys;
+    //Tasti premuti, il bit n è il tasto n
+    private int keys;
 
-    //Lo schermo, grande 64 * 32 pixel
-    private byte[] display;
+    //Lo schermo, 64 * 32 pixel (128 * 64 in modalità SCHIP-8), un bit per pixel
+    private final FrameBuffer display = new FrameBuffer();
 
     private boolean needRedraw;
     private boolean doSound;
     private boolean stopEmulation;
+    //FX0A eseguito senza tasti premuti: il pc è fermo su di esso
+    private boolean waitingForKey;
 
     private boolean superMode;
 
+    //Generatore per CXNN, seminato dall'orologio se non viene dato un seed
+    private RandomSource random = new XorShiftRandom(System.nanoTime());
+
+    //Tracing: i flag sono ricavati dal livello, così con il trace spento
+    //il ciclo principale controlla solamente un boolean
+    private TraceLevel traceLevel = TraceLevel.OFF;
+    private TraceSink traceSink;
+    private boolean traceOpcodes;
+    private boolean traceFull;
+
+    private Engine engine = Engine.SWITCH;
+
+    //Con il debugger spento run(int) controlla solamente questo riferimento
+    private Debugger debugger;
+    //Come il debugger: senza profiler nessun conteggio
+    private Profiler profiler;
+
+    //Cache dei blocchi compilati (Engine.BLOCKS), indicizzata per pc.
+    //compiledCode ha un bit per ogni indirizzo coperto da un blocco,
+    //per invalidare la cache quando il programma scrive sul proprio codice
+    //Allocata al primo blocco, chi non usa BLOCKS non paga i 4096 riferimenti
+    private BlockCompiler.Block[] blocks;
+    private final long[] compiledCode = new long[4096 / 64];
+    private boolean hasBlocks;
+
+    //Programma compilato da AotCompiler, usato finché la memoria contiene
+    //ancora il codice da cui è stato compilato
+    private CompiledProgram compiledProgram;
+    private boolean compiledCodeValid;
+
     public void init() {
-        memory = new char[4096];
-        V = new char[16];
-        flag = new char[8];
+        memory = new byte[4096];
+        memoryShared = false;
+        flushBlocks();
+        checkCompiledCode();
+        V = new byte[16];
+        flag = new byte[8];
         I = 0x0;
 
         //Il program counter inizia a 0x200 (512 bytes)
@@ -55,10 +95,12 @@ public class Chip {
         delay_timer = 0;
         sound_timer = 0;
 
-        keys = new byte[16];
+        keys = 0;
+        waitingForKey = false;
 
         //Dimensioni dello schermo
-        display = new byte[64 * 32];
+        superMode = false;
+        display.setHires(false);
         needRedraw = false;
 
         doSound = false;
@@ -67,8 +109,8 @@ public class Chip {
     }
 
     public void reset() {
-        V = new char[16];
-        flag = new char[8];
+        V = new byte[16];
+        flag = new byte[8];
         I = 0x0;
 
         //Il program counter inizia a 0x200 (512 bytes)
@@ -83,10 +125,12 @@ public class Chip {
         delay_timer = 0;
         sound_timer = 0;
 
-        keys = new byte[16];
+        keys = 0;
+        waitingForKey = false;
 
         //Dimensioni dello schermo
-        display = new byte[64 * 32];
+        superMode = false;
+        display.setHires(false);
         needRedraw = false;
 
         doSound = false;
@@ -116,8 +160,132 @@ public class Chip {
             indirizzo nelle ultime otto cifre del primo indirizzo
                 0101 0110 1001 0000
          */
-        char opcode = (char) ((memory[pc] << 8) | memory[pc + 1]);
-        System.out.print(Integer.toHexString(opcode).toUpperCase() + ": ");
+        char opcode = (char) (((memory[pc] & 0xFF) << 8) | (memory[pc + 1] & 0xFF));
+        if (traceOpcodes) {
+            traceSink.opcode(pc, opcode);
+        }
+
+        if (engine == Engine.TABLE) {
+            OpcodeTable.get(opcode).execute(this);
+        } else {
+            execute(opcode);
+        }
+    }
+
+    /**
+     * Executes up to maxInstructions instructions.
+     * With {@link Engine#BLOCKS} whole compiled blocks are executed at once,
+     * as long as they fit in the budget.
+     *
+     * @return the number of instructions executed, less than maxInstructions only
+     * if the emulation has been stopped
+     */
+    public int run(int maxInstructions) {
+        Debugger debugger = this.debugger;
+        if (debugger != null && debugger.isActive()) {
+            return debugger.run(this, maxInstructions);
+        }
+        Profiler profiler = this.profiler;
+        if (profiler != null) {
+            return profiler.run(this, maxInstructions);
+        }
+        return runEngine(maxInstructions);
+    }
+
+    /**
+     * {@link #run(int)} without the debugger and the profiler
+     */
+    int runEngine(int maxInstructions) {
+        if (compiledCodeValid && !traceOpcodes) {
+            return compiledProgram.run(this, maxInstructions);
+        }
+        if (engine != Engine.BLOCKS || traceOpcodes) {
+            for (int i = 0; i < maxInstructions; i++) {
+                run();
+                if (stopEmulation) {
+                    return i + 1;
+                }
+                //Fino al prossimo setKeys() FX0A ripeterebbe sé stesso senza cambiare nulla
+                if (waitingForKey && !traceOpcodes) {
+                    return maxInstructions;
+                }
+            }
+            return maxInstructions;
+        }
+
+        if (blocks == null) {
+            blocks = new BlockCompiler.Block[4096];
+        }
+        int executed = 0;
+        while (executed < maxInstructions && !stopEmulation) {
+            BlockCompiler.Block block = blocks[pc];
+            if (block == null) {
+                block = BlockCompiler.compile(memory, pc);
+                if (block != null) {
+                    blocks[pc] = block;
+                    markCompiled(pc, block.length * 2);
+                }
+            }
+
+            if (block != null && block.length <= maxInstructions - executed) {
+                block.code.execute(this);
+                executed += block.length;
+            } else {
+                run();
+                executed++;
+                if (waitingForKey) {
+                    return maxInstructions;
+                }
+            }
+        }
+        return executed;
+    }
+
+    private void markCompiled(int address, int length) {
+        for (int a = address; a < address + length && a < 4096; a++) {
+            compiledCode[a >> 6] |= 1L << a;
+        }
+        hasBlocks = true;
+    }
+
+    /**
+     * Called after every write to memory: if the written bytes belong to a
+     * compiled block, the block cache is thrown away
+     */
+    void codeWritten(int address, int length) {
+        if (compiledCodeValid && compiledProgram.covers(address, length)) {
+            compiledCodeValid = false;
+        }
+        if (!hasBlocks) {
+            return;
+        }
+        for (int a = address; a < address + length; a++) {
+            int masked = a & 0xFFF;
+            if ((compiledCode[masked >> 6] & (1L << masked)) != 0) {
+                flushBlocks();
+                return;
+            }
+        }
+    }
+
+    private void flushBlocks() {
+        if (hasBlocks) {
+            Arrays.fill(blocks, null);
+            Arrays.fill(compiledCode, 0);
+            hasBlocks = false;
+        }
+    }
+
+    /**
+     * Decodes the opcode with the nested switch and executes it.
+     * {@link OpcodeTable#decode(int)} must stay in sync with this method.
+     */
+    void execute(int opcode) {
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int n = opcode & 0x000F;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
 
         //Decifriamo l'Opcode e lo eseguiamo
         /*
@@ -130,52 +298,18 @@ public class Chip {
         switch (opcode & 0xF000) {
             case 0x0000: {
                 switch (opcode & 0x00F0) {
-                    case 0x00C0: { //00CN: SCHIP-8: (scroll-down n) Scroll the display down by 0 to 15 pixels.
-                        int n = (opcode & 0x000F);
-                        byte temp[];
-                        int startingIndex;
-
-                        if (superMode) {
-                            startingIndex = n * 128;
-                            temp = new byte[128 * 64];
-                        } else {
-                            startingIndex = n * 64;
-                            temp = new byte[64 * 32];
-                        }
-
-                        for (int i = 0; i < startingIndex; i++) {
-                            temp[i] = 0;
-                        }
-
-                        for (int j = 0; startingIndex + j < temp.length; j++) {
-                            temp[j + startingIndex] = display[j];
-                        }
-
-                        display = temp;
-
-                        System.out.println("SCHIP-8: Scroll the display down by " + n + " pixels.");
-                        pc += 2;
+                    case 0x00C0:
+                        op00CN(n);
                         break;
-                    }
 
                     case 0x00E0:
                         switch (opcode & 0x00FF) {
-                            case 0x00E0: //00E0: Clears the screen.
-                                for (int i = 0; i < display.length; i++) {
-                                    display[i] = 0;
-                                }
-
-                                System.out.println("Screen cleared");
-                                needRedraw = true;
-                                pc += 2;
+                            case 0x00E0:
+                                op00E0();
                                 break;
 
-                            case 0x00EE: //00EE: Returns from a subroutine.
-                                stackPointer--;
-                                pc = stack[stackPointer];
-
-                                System.out.println("Returning to " + Integer.toHexString(pc).toUpperCase());
-                                pc += 2;
+                            case 0x00EE:
+                                op00EE();
                                 break;
 
                             default:
@@ -186,24 +320,24 @@ public class Chip {
 
                     case 0x00F0:
                         switch (opcode & 0x00FF) {
-                            case 0x00FD: //00FD: SCHIP-8: Exit the interpreter.
-                                stopEmulation = true;
+                            case 0x00FB:
+                                op00FB();
                                 break;
 
-                            case 0x00FE: //00FE: SCHIP-8: Disable high resolution graphics mode and return to 64x32.
-                                display = new byte[64 * 32];
-                                superMode = false;
+                            case 0x00FC:
+                                op00FC();
+                                break;
 
-                                System.out.println("SCHIP-8: Lores mode enabled");
-                                pc += 2;
+                            case 0x00FD:
+                                op00FD();
                                 break;
 
-                            case 0x00FF: //00FF: SCHIP-8: Enable 128x64 high resolution graphics mode.
-                                display = new byte[128 * 64];
-                                superMode = true;
+                            case 0x00FE:
+                                op00FE();
+                                break;
 
-                                System.out.println("SCHIP-8: Hires mode enabled");
-                                pc += 2;
+                            case 0x00FF:
+                                op00FF();
                                 break;
 
                             default:
@@ -215,103 +349,39 @@ public class Chip {
                 break;
             }
 
-            case 0x1000: { //1NNN: Jumps to address NNN.
-                int nnn = opcode & 0x0FFF;
-                pc = (char) nnn;
-
-                System.out.println("Jumping to " + Integer.toHexString(pc).toUpperCase());
+            case 0x1000:
+                op1NNN(nnn);
                 break;
-            }
-
-            case 0x2000: { //2NNN: Calls subroutine at NNN.
-                stack[stackPointer] = pc;
-                stackPointer++;
-                //Prendiamo l'indirizzo dagli ultimi 3 nibbles (000)
-                pc = (char) (opcode & 0x0FFF);
 
-                System.out.println("Calling " + Integer.toHexString(pc).toUpperCase());
+            case 0x2000:
+                op2NNN(nnn);
                 break;
-            }
 
-            case 0x3000: { //3XNN: Skips the next instruction if VX equals NN.
-                int x = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                if (V[x] == nn) {
-                    pc += 4;
-                    System.out.println("Skipping next instruction (V[" + x + "] == " + nn + ")");
-                } else {
-                    pc += 2;
-                    System.out.println("Not skipping next instruction (V[" + x + "] != " + nn + ")");
-                }
+            case 0x3000:
+                op3XNN(x, nn);
                 break;
-            }
 
-            case 0x4000: { //4XNN: Skips the next instruction if VX doesn't equal NN.
-                int x = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                if (V[x] != nn) {
-                    pc += 4;
-                    System.out.println("Skipping next instruction (V[" + x + "] != " + nn + ")");
-                } else {
-                    pc += 2;
-                    System.out.println("Not skipping next instruction (V[" + x + "] == " + nn + ")");
-                }
+            case 0x4000:
+                op4XNN(x, nn);
                 break;
-            }
 
             case 0x5000: {
                 switch (opcode & 0x000F) {
-                    case 0x0000: { //5XY0: Skips the next instruction if VX equals VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        if (V[x] == V[y]) {
-                            pc += 4;
-                            System.out.println("Skipping next instruction (V[" + x + "] == (V[" + y + "])");
-                        } else {
-                            pc += 2;
-                            System.out.println("Not skipping next instruction (V[" + x + "] != (V[" + y + "])");
-                        }
+                    case 0x0000:
+                        op5XY0(x, y);
                         break;
-                    }
-
-                    case 0x0001: { //5XY1: COSMAC ELF: Skip the next instruction if register VX is greater than VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        if (V[x] > V[y]) {
-                            pc += 4;
-                            System.out.println("COSMAC ELF: Skipping next instruction (V[" + x + "] > (V[" + y + "])");
-                        } else {
-                            pc += 2;
-                            System.out.println("COSMAC ELF: Not skipping next instruction (V[" + x + "] <= (V[" + y + "])");
-                        }
+
+                    case 0x0001:
+                        op5XY1(x, y);
                         break;
-                    }
-
-                    case 0x0002: { //5XY2: COSMAC ELF: Skip the next instruction if register VX is less than VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        if (V[x] < V[y]) {
-                            pc += 4;
-                            System.out.println("COSMAC ELF: Skipping next instruction (V[" + x + "] < (V[" + y + "])");
-                        } else {
-                            pc += 2;
-                            System.out.println("COSMAC ELF: Not skipping next instruction (V[" + x + "] >= (V[" + y + "])");
-                        }
+
+                    case 0x0002:
+                        op5XY2(x, y);
                         break;
-                    }
-
-                    case 0x0003: { //5XY3: COSMAC ELF: Skip the next instruction if register VX does not equal VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        if (V[x] != V[y]) {
-                            pc += 4;
-                            System.out.println("COSMAC ELF: Skipping next instruction (V[" + x + "] != (V[" + y + "])");
-                        } else {
-                            pc += 2;
-                            System.out.println("COSMAC ELF: Not skipping next instruction (V[" + x + "] == (V[" + y + "])");
-                        }
+
+                    case 0x0003:
+                        op5XY3(x, y);
                         break;
-                    }
 
                     default:
                         unsupportedOpcode();
@@ -320,31 +390,13 @@ public class Chip {
                 break;
             }
 
-            case 0x6000: { //6XNN: Sets VX to NN.
-                //Otteniamo l'indice al secondo nibble
-                //Shiftiamo a destra di 8 bit (2 nibbles)
-                //per rimuovere i bit vuoti ottenuti dall'&
-                //(Un nibble equivale a 4 bit)
-                int x = (opcode & 0x0F00) >> 8;
-                //Inseriamo NN come valore di V[indice]
-                V[x] = (char) (opcode & 0x00FF);
-
-                //Avanziamo il programma di due posizioni
-                System.out.println("Setting V[" + x + "] to " + (int) V[x]);
-                pc += 2;
+            case 0x6000:
+                op6XNN(x, nn);
                 break;
-            }
 
-            case 0x7000: { //7XNN: Adds NN to VX.
-                int x = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                //Facciamo l'& per evitare l'overflow
-                V[x] = (char) ((V[x] + nn) & 0xFF);
-
-                System.out.println("Adding " + nn + " to V[" + x + "] = " + (int) V[x]);
-                pc += 2;
+            case 0x7000:
+                op7XNN(x, nn);
                 break;
-            }
 
             case 0x8000: {
                 /*
@@ -352,125 +404,99 @@ public class Chip {
                     creeremo un altro switch interno
                  */
                 switch (opcode & 0x000F) {
-                    case 0x0000: { //8XY0: Sets VX to the value of VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = V[y];
+                    case 0x0000:
+                        op8XY0(x, y);
+                        break;
 
-                        System.out.println("Setting V[" + x + "] to the value of V[" + y + "]");
-                        pc += 2;
+                    case 0x0001:
+                        op8XY1(x, y);
                         break;
-                    }
 
-                    case 0x0001: { //8XY1: Sets VX to VX or VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = (char) ((V[x] | V[y]) & 0xFF);
+                    case 0x0002:
+                        op8XY2(x, y);
+                        break;
 
-                        System.out.println("Setting V[" + x + "] to the value of V[" + x + "] OR V[" + y + "]");
-                        pc += 2;
+                    case 0x0003:
+                        op8XY3(x, y);
                         break;
-                    }
 
-                    case 0x0002: { //8XY2: Sets VX to VX and VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = (char) (V[x] & V[y]);
+                    case 0x0004:
+                        op8XY4(x, y);
+                        break;
 
-                        System.out.println("Setting V[" + x + "] to the value of V[" + x + "] AND V[" + y + "]");
-                        pc += 2;
+                    case 0x0005:
+                        op8XY5(x, y);
                         break;
-                    }
 
-                    case 0x0003: { //8XY3: Sets VX to VX xor VY..
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        V[x] = (char) ((V[x] ^ V[y]) & 0xFF);
+                    case 0x0006:
+                        op8XY6(x);
+                        break;
 
-                        System.out.println("Setting V[" + x + "] to the value of V[" + x + "] XOR V[" + y + "]");
-                        pc += 2;
+                    case 0x0007:
+                        op8XY7(x, y);
                         break;
-                    }
 
-                    case 0x0004: { //8XY4: Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        //Se V[x] e V[y] sommati formano un numero più grande di 255
-                        //allora bisogna impostare il flag V[0x0F] a 1.
-                        if (V[y] > 0xFF - V[x]) {
-                            V[0xF] = 1;
-                            System.out.print("Carry! ");
-                        } else {
-                            V[0xF] = 0;
-                            System.out.print("No carry. ");
-                        }
-                        V[x] = (char) ((V[x] + V[y]) & 0xFF);
-
-                        System.out.println("Adding V[" + x + "] to V[" + y + "] = " + ((V[x] + V[y]) & 0xFF) + ", apply Carry if needed");
-                        pc += 2;
-                        break;
-                    }
-
-                    case 0x0005: { //8XY5: VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        //Se V[y] è più grande di V[x], l'operazione andrà sotto lo
-                        //zero, quindi si usa il "borrow".
-                        if (V[x] > V[y]) {
-                            V[0xF] = 1;
-                            System.out.print("No borrow. ");
-                        } else {
-                            V[0xF] = 0;
-                            System.out.print("Borrow. ");
-                        }
-                        V[x] = (char) ((V[x] - V[y]) & 0xFF);
+                    case 0x000E:
+                        op8XYE(x);
+                        break;
 
-                        System.out.println("Setting V[" + x + "] to the value of V[" + x + "] - V[" + y + "]");
-                        pc += 2;
+                    default:
+                        unsupportedOpcode();
                         break;
-                    }
+                }
+                break;
+            }
 
-                    case 0x0006: { //8XY6: Stores the least significant bit of VX in VF and then shifts VX to the right by 1.
-                        int x = (opcode & 0x0F00) >> 8;
-                        //Stiamo ottenendo il bit meno significativo
-                        //(Ovvero quello più a destra, usando & 0x1;
-                        V[0xF] = (char) (V[x] & 0x1);
-                        V[x] = (char) (V[x] >> 1);
+            case 0x9000: {
+                switch (opcode & 0x000F) {
+                    case 0x0000:
+                        op9XY0(x, y);
+                        break;
 
-                        System.out.println("Store the LSB of V[" + x + "] in VF, then V[" + x + "] >> 1");
-                        pc += 2;
+                    case 0x0001:
+                        op9XY1(x, y);
                         break;
-                    }
 
-                    case 0x0007: { //8XY7: 	Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
+                    case 0x0002:
+                        op9XY2(x, y);
+                        break;
 
-                        if (V[y] > V[x]) {
-                            V[0xF] = 1;
-                            System.out.print("No borrow. ");
-                        } else {
-                            V[0xF] = 0;
-                            System.out.print("Borrow. ");
-                        }
-                        V[x] = (char) ((V[y] - V[x]) & 0xFF);
+                    case 0x0003:
+                        op9XY3(x, y);
+                        break;
 
-                        System.out.println("Setting V[" + x + "] to the value of V[" + y + "] - V[" + x + "]");
-                        pc += 2;
+                    default:
+                        unsupportedOpcode();
                         break;
-                    }
+                }
+                break;
+            }
+
+            case 0xA000:
+                opANNN(nnn);
+                break;
 
-                    case 0x000E: { //8XYE: Stores the most significant bit of VX in VF and then shifts VX to the left by 1.
-                        int x = (opcode & 0x0F00) >> 8;
-                        //Stiamo ottenendo il bit più significativo
-                        //(Ovvero quello più a sinistra, usando & 0x80;
-                        V[0xF] = (char) (V[x] & 0x80);
-                        V[x] = (char) (V[x] << 1);
+            case 0xB000:
+                opBNNN(nnn);
+                break;
+
+            case 0xC000:
+                opCXNN(x, nn);
+                break;
+
+            case 0xD000:
+                opDXYN(x, y, n);
+                break;
+
+            case 0xE000: {
+                switch (opcode & 0x00FF) {
+                    case 0x009E:
+                        opEX9E(x);
+                        break;
 
-                        System.out.println("Store the MSB of V[" + x + "] in VF, then V[" + x + "] << 1");
-                        pc += 2;
+                    case 0x00A1:
+                        opEXA1(x);
                         break;
-                    }
 
                     default:
                         unsupportedOpcode();
@@ -479,72 +505,55 @@ public class Chip {
                 break;
             }
 
-            case 0x9000: {
-                switch (opcode & 0x000F) {
-                    case 0x0000: { //9XY0: 	Skips the next instruction if VX doesn't equal VY.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
-                        if (V[x] != V[y]) {
-                            pc += 4;
-                            System.out.println("Skipping next instruction (V[" + x + "] != (V[" + y + "])");
-                        } else {
-                            pc += 2;
-                            System.out.println("Not skipping next instruction (V[" + x + "] == (V[" + y + "])");
-                        }
+            case 0xF000: {
+                switch (opcode & 0x00FF) {
+                    case 0x007:
+                        opFX07(x);
                         break;
-                    }
-
-                    case 0x0001: { //9XY1: COSMAC ELF: Set VF, VX equal to VX multipled by VY where VF is the most significant byte of a 16bit word.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
 
-                        char z = (char) (V[x] * V[y]);
+                    case 0x00A:
+                        opFX0A(x);
+                        break;
 
-                        V[x] = (char) (z & 0xFF);
-                        V[0xF] = (char) ((z >> 8) & 0xFF);
+                    case 0x015:
+                        opFX15(x);
+                        break;
 
-                        System.out.println("COSMAC ELF: Setting V[" + x + "] as (V[" + x + "] * (V[" + y + "]), and V[0xF] as the most significant byte of the result");
-                        pc += 2;
+                    case 0x018:
+                        opFX18(x);
                         break;
-                    }
 
-                    case 0x0002: { //9XY2: COSMAC ELF: Set VX equal to VX divided by VY. VF is set to the remainder.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
+                    case 0x01E:
+                        opFX1E(x);
+                        break;
 
-                        V[0xF] = (char) (V[x] % V[y]);
-                        V[x] = (char) (V[x] / V[y]);
+                    case 0x029:
+                        opFX29(x);
+                        break;
 
-                        System.out.println("COSMAC ELF: Setting V[" + x + "] as (V[" + x + "] / (V[" + y + "]), and V[0xF] as the remainder");
-                        pc += 2;
+                    case 0x033:
+                        opFX33(x);
                         break;
-                    }
 
-                    case 0x0003: { //9XY3: COSMAC ELF: Let VX, VY be treated as a 16bit word with VX the most significant part. Convert that word to BCD and store the 5 digits at memory location I through I+4. I does not change.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int y = (opcode & 0x00F0) >> 4;
+                    case 0x055:
+                        opFX55(x);
+                        break;
 
-                        int word = ((V[x] << 8) | V[y]);
+                    case 0x065:
+                        opFX65(x);
+                        break;
 
-                        int one = (word - (word % 10000)) / 10000;
-                        word -= one * 10000;
-                        int two = (word - (word % 1000)) / 1000;
-                        word -= two * 1000;
-                        int three = (word - (word % 100)) / 100;
-                        word -= three * 100;
-                        int four = (word - (word % 10)) / 10;
-                        word -= four * 10;
+                    case 0x075:
+                        opFX75(x);
+                        break;
 
-                        memory[I] = (char) one;
-                        memory[I + 1] = (char) two;
-                        memory[I + 2] = (char) three;
-                        memory[I + 3] = (char) four;
-                        memory[I + 4] = (char) word;
+                    case 0x085:
+                        opFX85(x);
+                        break;
 
-                        System.out.println("COSMAC ELF: Storing Binary-Coded Decimal (V[" + x + "] << 8 |  = V[" + y + "]) = " + word + " as {" + one + ", " + two + ", " + three + ", " + four + ", " + word + "}");
-                        pc += 2;
+                    case 0x094:
+                        opFX94(x);
                         break;
-                    }
 
                     default:
                         unsupportedOpcode();
@@ -553,321 +562,591 @@ public class Chip {
                 break;
             }
 
-            case 0xA000: { //ANNN: Sets I to the address NNN.
-                I = (short) (opcode & 0x0FFF);
 
-                System.out.println("Set I to " + Integer.toHexString(I).toUpperCase());
-                pc += 2;
+            default:
+                unsupportedOpcode();
                 break;
-            }
+        }
+    }
 
-            case 0xB000: { //BNNN: Jumps to the address NNN plus V0.
-                int nnn = (char) (opcode & 0x0FFF);
-                int extra = V[0] & 0xFF;
-                pc = (char) (extra + nnn);
+    /*
+        Implementazione delle istruzioni.
+        Ogni metodo esegue un opcode già decodificato e avanza il pc,
+        sia lo switch di execute() che OpcodeTable chiamano questi metodi.
+     */
 
-                System.out.println("Jump to " + nnn + " + " + V[0]);
-                break;
-            }
+    //00CN: SCHIP-8: (scroll-down n) Scroll the display down by 0 to 15 pixels.
+    void op00CN(int n) {
+        display.scrollDown(n);
 
-            case 0xC000: { //CXNN: Sets VX to the result of a bitwise and operation on a random number (Typically: 0 to 255) and NN.
-                int x = (opcode & 0x0F00) >> 8;
-                int nn = (opcode & 0x00FF);
-                int randomNumber = new Random().nextInt(255) & nn;
-                V[x] = (char) randomNumber;
+        if (traceFull) traceSink.message("SCHIP-8: Scroll the display down by " + n + " pixels.");
+        needRedraw = true;
+        pc += 2;
+    }
 
-                System.out.println("V[" + x + "] has been set to (randomised) " + randomNumber);
-                pc += 2;
-                break;
-            }
+    //00E0: Clears the screen.
+    void op00E0() {
+        display.clear();
 
-            case 0xD000: { //DXYN: Draw a sprite (X, Y) size (8, N). Sprite is located at I
-                int x = V[(opcode & 0x0F00) >> 8];
-                int y = V[(opcode & 0x00F0) >> 4];
-                int height = opcode & 0x000F;
+        if (traceFull) traceSink.message("Screen cleared");
+        needRedraw = true;
+        pc += 2;
+    }
 
-                V[0xF] = 0;
+    //00EE: Returns from a subroutine.
+    void op00EE() {
+        stackPointer--;
+        pc = stack[stackPointer];
 
-                if (superMode) {
-                    //DXY0: Draw a sprite (X, Y) size (8, 16). Sprite is located at I
-                    for (int _y = 0; _y < 16; _y++) {
-                        int line = memory[I + _y];
+        if (traceFull) traceSink.message("Returning to " + Integer.toHexString(pc).toUpperCase());
+        pc += 2;
+    }
 
-                        for (int _x = 0; _x < 16; _x++) {
-                            int pixel = line & (0x80 >> _x);
-                            if (pixel != 0) {
-                                int totalX = x + _x;
-                                int totalY = y + _y;
+    //00FB: SCHIP-8: Scroll the display right by 4 pixels.
+    void op00FB() {
+        display.scrollRight(4);
 
-                                //Per il SCHIP-8 non c'è wrapping
-//                                    totalX = totalX % 128;
-//                                    totalY = totalY % 64;
+        if (traceFull) traceSink.message("SCHIP-8: Scroll the display right by 4 pixels.");
+        needRedraw = true;
+        pc += 2;
+    }
 
-                                int index = (totalY * 128) + totalX;
+    //00FC: SCHIP-8: Scroll the display left by 4 pixels.
+    void op00FC() {
+        display.scrollLeft(4);
 
-                                if(index >= display.length){
-                                    System.err.println("ArrayIndexOutOfBoundsException while drawing screen: " + index);
-                                    System.exit(0);
-                                }
+        if (traceFull) traceSink.message("SCHIP-8: Scroll the display left by 4 pixels.");
+        needRedraw = true;
+        pc += 2;
+    }
 
-                                if (display[index] == 1)
-                                    V[0xF] = 1;
+    //00FD: SCHIP-8: Exit the interpreter.
+    void op00FD() {
+        stopEmulation = true;
+    }
 
-                                display[index] ^= 1;
-                            }
-                        }
+    //00FE: SCHIP-8: Disable high resolution graphics mode and return to 64x32.
+    void op00FE() {
+        display.setHires(false);
+        superMode = false;
 
-                    }
-                    System.out.println("SCHIP-8: Drawing at V[" + ((opcode & 0x0F00) >> 8) + "] = " + x + ", V[" + ((opcode & 0x00F0) >> 4) + "] = " + y);
-                } else {
-                    //DXYN: Draw a sprite (X, Y) size (8, N). Sprite is located at I
-                    for (int _y = 0; _y < height; _y++) {
-                        int line = memory[I + _y];
-                        for (int _x = 0; _x < 8; _x++) {
-                            int pixel = line & (0x80 >> _x);
-                            if (pixel != 0) {
-                                int totalX = x + _x;
-                                int totalY = y + _y;
-
-                                //Codice di wrapping, per evitare che
-                                //l'indice vada outofbounds
-                                totalX = totalX % 64;
-                                totalY = totalY % 32;
-
-                                int index = (totalY * 64) + totalX;
-
-                                if (display[index] == 1)
-                                    V[0xF] = 1;
-
-                                display[index] ^= 1;
-                            }
-                        }
-                    }
-                    System.out.println("Drawing at V[" + ((opcode & 0x0F00) >> 8) + "] = " + x + ", V[" + ((opcode & 0x00F0) >> 4) + "] = " + y);
-                }
+        if (traceFull) traceSink.message("SCHIP-8: Lores mode enabled");
+        pc += 2;
+    }
 
-                pc += 2;
-                needRedraw = true;
-                break;
-            }
+    //00FF: SCHIP-8: Enable 128x64 high resolution graphics mode.
+    void op00FF() {
+        display.setHires(true);
+        superMode = true;
 
-            case 0xE000: {
-                switch (opcode & 0x00FF) {
-                    case 0x009E: { //EX9E: Skips the next instruction if the key stored in VX is pressed.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int key = V[x];
-                        if (keys[key] == 1) {
-                            System.out.println("Skipping next instruction if V[" + x + "] = " + (int) V[x] + " is pressed");
-                            pc += 4;
-                        } else {
-                            System.out.println("Not skipping next instruction if V[" + x + "] = " + (int) V[x] + " is NOT pressed");
-                            pc += 2;
-                        }
-                        break;
-                    }
-
-                    case 0x00A1: { //EXA1: Skips the next instruction if the key stored in VX isn't pressed.
-                        int x = (opcode & 0x0F00) >> 8;
-                        int key = V[x];
-                        if (keys[key] == 0) {
-                            System.out.println("Skipping next instruction if V[" + x + "] = " + (int) V[x] + " is NOT pressed");
-                            pc += 4;
-                        } else {
-                            System.out.println("Not skipping next instruction if V[" + x + "] = " + (int) V[x] + " is pressed");
-                            pc += 2;
-                        }
-                        break;
-                    }
+        if (traceFull) traceSink.message("SCHIP-8: Hires mode enabled");
+        pc += 2;
+    }
 
-                    default:
-                        unsupportedOpcode();
-                        break;
-                }
-                break;
-            }
+    //1NNN: Jumps to address NNN.
+    void op1NNN(int nnn) {
+        pc = (char) nnn;
 
-            case 0xF000: {
-                switch (opcode & 0x00FF) {
-                    case 0x007: { //FX07: Sets VX to the value of the delay timer.
-                        int x = (opcode & 0x0F00) >> 8;
-                        V[x] = (char) delay_timer;
+        if (traceFull) traceSink.message("Jumping to " + Integer.toHexString(pc).toUpperCase());
+    }
 
-                        System.out.println("Setting V[" + x + "] to delay_timer value " + delay_timer);
-                        pc += 2;
-                        break;
-                    }
+    //2NNN: Calls subroutine at NNN.
+    void op2NNN(int nnn) {
+        stack[stackPointer] = pc;
+        stackPointer++;
+        //Prendiamo l'indirizzo dagli ultimi 3 nibbles (000)
+        pc = (char) nnn;
 
-                    case 0x00A: { //FX0A: A key press is awaited, and then stored in VX.
+        if (traceFull) traceSink.message("Calling " + Integer.toHexString(pc).toUpperCase());
+    }
 
-                        int x = (opcode & 0x0F00) >> 8;
-                        for (int i = 0; i < keys.length; i++) {
-                            if (keys[i] == 1) {
-                                V[x] = (char) i;
-                                pc += 2;
-                                break;
-                            }
-                        }
+    //3XNN: Skips the next instruction if VX equals NN.
+    void op3XNN(int x, int nn) {
+        if ((V[x] & 0xFF) == nn) {
+            pc += 4;
+            if (traceFull) traceSink.message("Skipping next instruction (V[" + x + "] == " + nn + ")");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("Not skipping next instruction (V[" + x + "] != " + nn + ")");
+        }
+    }
 
-                        System.out.println("Awaiting key press to be stored in V[" + x + "]");
-                        break;
-                    }
+    //4XNN: Skips the next instruction if VX doesn't equal NN.
+    void op4XNN(int x, int nn) {
+        if ((V[x] & 0xFF) != nn) {
+            pc += 4;
+            if (traceFull) traceSink.message("Skipping next instruction (V[" + x + "] != " + nn + ")");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("Not skipping next instruction (V[" + x + "] == " + nn + ")");
+        }
+    }
 
-                    case 0x015: { //FX15: Sets the delay timer to VX
-                        int x = (opcode & 0x0F00) >> 8;
-                        delay_timer = (byte) V[x];
+    //5XY0: Skips the next instruction if VX equals VY.
+    void op5XY0(int x, int y) {
+        if (V[x] == V[y]) {
+            pc += 4;
+            if (traceFull) traceSink.message("Skipping next instruction (V[" + x + "] == (V[" + y + "])");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("Not skipping next instruction (V[" + x + "] != (V[" + y + "])");
+        }
+    }
 
-                        System.out.println("Setting delay_timer to V[" + x + "] = " + (int) V[x]);
-                        pc += 2;
-                        break;
-                    }
+    //5XY1: COSMAC ELF: Skip the next instruction if register VX is greater than VY.
+    void op5XY1(int x, int y) {
+        if ((V[x] & 0xFF) > (V[y] & 0xFF)) {
+            pc += 4;
+            if (traceFull) traceSink.message("COSMAC ELF: Skipping next instruction (V[" + x + "] > (V[" + y + "])");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("COSMAC ELF: Not skipping next instruction (V[" + x + "] <= (V[" + y + "])");
+        }
+    }
 
-                    case 0x018: { //FX18: Sets the sound timer to VX
-                        int x = (opcode & 0x0F00) >> 8;
-                        sound_timer = (byte) V[x];
+    //5XY2: COSMAC ELF: Skip the next instruction if register VX is less than VY.
+    void op5XY2(int x, int y) {
+        if ((V[x] & 0xFF) < (V[y] & 0xFF)) {
+            pc += 4;
+            if (traceFull) traceSink.message("COSMAC ELF: Skipping next instruction (V[" + x + "] < (V[" + y + "])");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("COSMAC ELF: Not skipping next instruction (V[" + x + "] >= (V[" + y + "])");
+        }
+    }
 
-                        System.out.println("Setting sound_timer to V[" + x + "] = " + (int) V[x]);
-                        pc += 2;
-                        break;
-                    }
+    //5XY3: COSMAC ELF: Skip the next instruction if register VX does not equal VY.
+    void op5XY3(int x, int y) {
+        if (V[x] != V[y]) {
+            pc += 4;
+            if (traceFull) traceSink.message("COSMAC ELF: Skipping next instruction (V[" + x + "] != (V[" + y + "])");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("COSMAC ELF: Not skipping next instruction (V[" + x + "] == (V[" + y + "])");
+        }
+    }
 
-                    case 0x01E: { //FX1E: Adds VX to I. VF is not affected. (or maybe yes?)
-                        int x = (opcode & 0x0F00) >> 8;
-                        //V[0xF] = (char) ((I + V[x] > 0xfff) ? 1 : 0);
-                        I = (short) (I + V[x]);
+    //6XNN: Sets VX to NN.
+    void op6XNN(int x, int nn) {
+        //Inseriamo NN come valore di V[indice]
+        V[x] = (byte) nn;
 
-                        System.out.println("Adding V[" + x + "] with the value of " + (int) V[x] + " to I");
-                        pc += 2;
-                        break;
-                    }
+        //Avanziamo il programma di due posizioni
+        if (traceFull) traceSink.message("Setting V[" + x + "] to " + (V[x] & 0xFF));
+        pc += 2;
+    }
 
-                    case 0x029: { //FX29: Sets I to the location of the sprite for the character VX (Fontset)
-                        int x = (opcode & 0x0F00) >> 8;
-                        int character = V[x];
-                        I = (short) (0x050 + (character * 5));
+    //7XNN: Adds NN to VX.
+    void op7XNN(int x, int nn) {
+        //Il cast a byte tiene gli 8 bit bassi, come l'& 0xFF
+        V[x] = (byte) (V[x] + nn);
 
-                        System.out.println("Setting I to Character V[" + x + "] = " + (int) V[x] + " Offset to 0x" + Integer.toHexString(I).toUpperCase());
-                        pc += 2;
-                        break;
-                    }
+        if (traceFull) traceSink.message("Adding " + nn + " to V[" + x + "] = " + (V[x] & 0xFF));
+        pc += 2;
+    }
 
-                    case 0x033: { //FX33: Store a binary-coded decimal value VX in I, I + 1 and I + 2
-                        int x = (opcode & 0x0F00) >> 8;
-                        //Otteniamo il numero e lo salviamo come decimale
-                        int value = V[x];
+    //8XY0: Sets VX to the value of VY.
+    void op8XY0(int x, int y) {
+        V[x] = V[y];
 
-                        //Otteniamo centinaio, decina ed unità dal numero
-                        int hundreds = (value - (value % 100)) / 100;
-                        value -= hundreds * 100;
-                        int tens = (value - (value % 10)) / 10;
-                        value -= tens * 10;
+        if (traceFull) traceSink.message("Setting V[" + x + "] to the value of V[" + y + "]");
+        pc += 2;
+    }
 
-                        //Li salviamo in I, I+1 e I+2
-                        memory[I] = (char) hundreds;
-                        memory[I + 1] = (char) tens;
-                        memory[I + 2] = (char) value;
+    //8XY1: Sets VX to VX or VY.
+    void op8XY1(int x, int y) {
+        V[x] = (byte) (V[x] | V[y]);
 
-                        System.out.println("Storing Binary-Coded Decimal V[" + x + "] = " + value + " as {" + hundreds + ", " + tens + ", " + value + "}");
-                        pc += 2;
-                        break;
-                    }
+        if (traceFull) traceSink.message("Setting V[" + x + "] to the value of V[" + x + "] OR V[" + y + "]");
+        pc += 2;
+    }
 
-                    case 0x055: { //FX55: Stores V0 to VX (including VX) in memory starting at address I. The offset from I is increased by 1 for each value written, but I itself is left unmodified.
-                        int x = (opcode & 0x0F00) >> 8;
-                        for (int i = 0; i < x; i++) {
-                            memory[I + i] = V[i];
-                        }
+    //8XY2: Sets VX to VX and VY.
+    void op8XY2(int x, int y) {
+        V[x] = (byte) (V[x] & V[y]);
 
-                        //Nell'interprete originale, I viene modificato
-                        //ma useremo il comportamento delle versioni successive (SUPER CHIP-8)
-                        //
-                        //Usando la variabile superMode, posso cambiare comportamento a seconda della rom selezionata
-                        if (!superMode) {
-                            I += x + 1;
-                        }
+        if (traceFull) traceSink.message("Setting V[" + x + "] to the value of V[" + x + "] AND V[" + y + "]");
+        pc += 2;
+    }
 
-                        System.out.println("Storing V[0] to V[" + x + "] to the values of memory[0x" + Integer.toHexString(I & 0xFFFF).toUpperCase() + "]");
-                        pc += 2;
-                        break;
-                    }
+    //8XY3: Sets VX to VX xor VY..
+    void op8XY3(int x, int y) {
+        V[x] = (byte) (V[x] ^ V[y]);
 
-                    case 0x065: { //FX65: Fills V0 to VX (including VX) with values from memory starting at address I.
-                        int x = (opcode & 0x0F00) >> 8;
-                        for (int i = 0; i <= x; i++) {
-                            V[i] = memory[I + i];
-                        }
+        if (traceFull) traceSink.message("Setting V[" + x + "] to the value of V[" + x + "] XOR V[" + y + "]");
+        pc += 2;
+    }
 
-                        //Nell'interprete originale, I viene modificato
-                        //ma useremo il comportamento delle versioni successive (SUPER CHIP-8)
-                        //
-                        //Usando la variabile superMode, posso cambiare comportamento a seconda della rom selezionata
-                        if (!superMode) {
-                            I += x + 1;
-                        }
+    //8XY4: Adds VY to VX. VF is set to 1 when there's a carry, and to 0 when there isn't.
+    void op8XY4(int x, int y) {
+        //Se V[x] e V[y] sommati formano un numero più grande di 255
+        //allora bisogna impostare il flag V[0x0F] a 1.
+        if ((V[y] & 0xFF) > 0xFF - (V[x] & 0xFF)) {
+            V[0xF] = 1;
+        } else {
+            V[0xF] = 0;
+        }
+        V[x] = (byte) (V[x] + V[y]);
 
-                        System.out.println("Setting V[0] to V[" + x + "] to the values of memory[0x" + Integer.toHexString(I & 0xFFFF).toUpperCase() + "]");
-                        pc += 2;
-                        break;
-                    }
+        if (traceFull) traceSink.message((V[0xF] == 1 ? "Carry! " : "No carry. ") + "Adding V[" + x + "] to V[" + y + "] = " + ((V[x] + V[y]) & 0xFF) + ", apply Carry if needed");
+        pc += 2;
+    }
 
-                    case 0x075: { //FX75: SCHIP-8: Save v0-vX to flag registers.
-                        int x = (opcode & 0x0F00) >> 8;
-                        for (int i = 0; i <= x; i++) {
-                            flag[i] = V[i];
-                        }
+    //8XY5: VY is subtracted from VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+    void op8XY5(int x, int y) {
+        //Se V[y] è più grande di V[x], l'operazione andrà sotto lo
+        //zero, quindi si usa il "borrow".
+        if ((V[x] & 0xFF) > (V[y] & 0xFF)) {
+            V[0xF] = 1;
+        } else {
+            V[0xF] = 0;
+        }
+        V[x] = (byte) (V[x] - V[y]);
 
-                        System.out.println("SCHIP-8: Setting flag[0] to flag[" + x + "] to the values of V[0] to V[" + x + "]");
-                        pc += 2;
-                        break;
-                    }
+        if (traceFull) traceSink.message((V[0xF] == 1 ? "No borrow. " : "Borrow. ") + "Setting V[" + x + "] to the value of V[" + x + "] - V[" + y + "]");
+        pc += 2;
+    }
 
-                    case 0x085: { //FX85: Restore v0-vX from flag registers.
-                        int x = (opcode & 0x0F00) >> 8;
-                        for (int i = 0; i <= x; i++) {
-                            V[i] = flag[i];
-                        }
+    //8XY6: Stores the least significant bit of VX in VF and then shifts VX to the right by 1.
+    void op8XY6(int x) {
+        //Stiamo ottenendo il bit meno significativo
+        //(Ovvero quello più a destra, usando & 0x1;
+        V[0xF] = (byte) (V[x] & 0x1);
+        V[x] = (byte) ((V[x] & 0xFF) >> 1);
 
-                        System.out.println("SCHIP-8: Setting V[0] to V[" + x + "] to the values of flag[0] to flag[" + x + "]");
-                        pc += 2;
-                        break;
-                    }
+        if (traceFull) traceSink.message("Store the LSB of V[" + x + "] in VF, then V[" + x + "] >> 1");
+        pc += 2;
+    }
+
+    //8XY7: Sets VX to VY minus VX. VF is set to 0 when there's a borrow, and 1 when there isn't.
+    void op8XY7(int x, int y) {
+        if ((V[y] & 0xFF) > (V[x] & 0xFF)) {
+            V[0xF] = 1;
+        } else {
+            V[0xF] = 0;
+        }
+        V[x] = (byte) (V[y] - V[x]);
+
+        if (traceFull) traceSink.message((V[0xF] == 1 ? "No borrow. " : "Borrow. ") + "Setting V[" + x + "] to the value of V[" + y + "] - V[" + x + "]");
+        pc += 2;
+    }
+
+    //8XYE: Stores the most significant bit of VX in VF and then shifts VX to the left by 1.
+    void op8XYE(int x) {
+        //Stiamo ottenendo il bit più significativo
+        //(Ovvero quello più a sinistra, che esce con lo shift)
+        V[0xF] = (byte) ((V[x] >> 7) & 0x1);
+        V[x] = (byte) (V[x] << 1);
 
-                    case 0x094: { //FX94: COSMAC ELF: Load I with the font sprite of the 6-bit ASCII value found in VX; V0 is set to the symbol length
-                        int x = (opcode & 0x0F00) >> 8;
+        if (traceFull) traceSink.message("Store the MSB of V[" + x + "] in VF, then V[" + x + "] << 1");
+        pc += 2;
+    }
 
-                        int c = V[x] * 3 + 0x100;
+    //9XY0: Skips the next instruction if VX doesn't equal VY.
+    void op9XY0(int x, int y) {
+        if (V[x] != V[y]) {
+            pc += 4;
+            if (traceFull) traceSink.message("Skipping next instruction (V[" + x + "] != (V[" + y + "])");
+        } else {
+            pc += 2;
+            if (traceFull) traceSink.message("Not skipping next instruction (V[" + x + "] == (V[" + y + "])");
+        }
+    }
 
-                        int ab = memory[c];
-                        int cd = memory[c + 1];
-                        int ef = memory[c + 2];
+    //9XY1: COSMAC ELF: Set VF, VX equal to VX multipled by VY where VF is the most significant byte of a 16bit word.
+    void op9XY1(int x, int y) {
+        int z = (V[x] & 0xFF) * (V[y] & 0xFF);
 
-                        memory[0x1C0] = memory[0xF0 + (ef & 0xF)];
-                        memory[0x1C1] = memory[0xF0 + (cd >> 4)];
-                        memory[0x1C2] = memory[0xF0 + (cd & 0xF)];
-                        memory[0x1C3] = memory[0xF0 + (ab >> 4)];
-                        memory[0x1C4] = memory[0xF0 + (ab & 0xF)];
+        V[x] = (byte) z;
+        V[0xF] = (byte) (z >> 8);
 
-                        V[0] = (char) (ef >> 4);
+        if (traceFull) traceSink.message("COSMAC ELF: Setting V[" + x + "] as (V[" + x + "] * (V[" + y + "]), and V[0xF] as the most significant byte of the result");
+        pc += 2;
+    }
 
-                        I = 0x1C0;
+    //9XY2: COSMAC ELF: Set VX equal to VX divided by VY. VF is set to the remainder.
+    void op9XY2(int x, int y) {
+        V[0xF] = (byte) ((V[x] & 0xFF) % (V[y] & 0xFF));
+        V[x] = (byte) ((V[x] & 0xFF) / (V[y] & 0xFF));
 
-                        System.out.println("COSMAC ELF: Loading I with font sprite from the value of V[" + x + "]");
-                        pc += 2;
-                        break;
-                    }
+        if (traceFull) traceSink.message("COSMAC ELF: Setting V[" + x + "] as (V[" + x + "] / (V[" + y + "]), and V[0xF] as the remainder");
+        pc += 2;
+    }
 
-                    default:
-                        unsupportedOpcode();
-                        break;
-                }
-                break;
+    //9XY3: COSMAC ELF: Let VX, VY be treated as a 16bit word with VX the most significant part. Convert that word to BCD and store the 5 digits at memory location I through I+4. I does not change.
+    void op9XY3(int x, int y) {
+        int word = ((V[x] & 0xFF) << 8) | (V[y] & 0xFF);
+
+        int one = (word - (word % 10000)) / 10000;
+        word -= one * 10000;
+        int two = (word - (word % 1000)) / 1000;
+        word -= two * 1000;
+        int three = (word - (word % 100)) / 100;
+        word -= three * 100;
+        int four = (word - (word % 10)) / 10;
+        word -= four * 10;
+
+        byte[] memory = writableMemory();
+        memory[I] = (byte) one;
+        memory[I + 1] = (byte) two;
+        memory[I + 2] = (byte) three;
+        memory[I + 3] = (byte) four;
+        memory[I + 4] = (byte) word;
+        codeWritten(I, 5);
+
+        if (traceFull) traceSink.message("COSMAC ELF: Storing Binary-Coded Decimal (V[" + x + "] << 8 |  = V[" + y + "]) = " + word + " as {" + one + ", " + two + ", " + three + ", " + four + ", " + word + "}");
+        pc += 2;
+    }
+
+    //ANNN: Sets I to the address NNN.
+    void opANNN(int nnn) {
+        I = nnn;
+
+        if (traceFull) traceSink.message("Set I to " + Integer.toHexString(I).toUpperCase());
+        pc += 2;
+    }
+
+    //BNNN: Jumps to the address NNN plus V0.
+    void opBNNN(int nnn) {
+        int extra = V[0] & 0xFF;
+        pc = (char) (extra + nnn);
+
+        if (traceFull) traceSink.message("Jump to " + nnn + " + " + extra);
+    }
+
+    //CXNN: Sets VX to the result of a bitwise and operation on a random number (Typically: 0 to 255) and NN.
+    void opCXNN(int x, int nn) {
+        int randomNumber = random.nextByte() & nn;
+        V[x] = (byte) randomNumber;
+
+        if (traceFull) traceSink.message("V[" + x + "] has been set to (randomised) " + randomNumber);
+        pc += 2;
+    }
+
+    //DXYN: Draw a sprite (X, Y) size (8, N). Sprite is located at I
+    void opDXYN(int vx, int vy, int height) {
+        int x = V[vx] & 0xFF;
+        int y = V[vy] & 0xFF;
+
+        boolean collision = drawSprite(x, y, I, height);
+        if (traceFull) traceSink.message((superMode ? "SCHIP-8: " : "") + "Drawing at V[" + vx + "] = " + x + ", V[" + vy + "] = " + y);
+
+        V[0xF] = (byte) (collision ? 1 : 0);
+        pc += 2;
+    }
+
+    /**
+     * Draws the sprite at address, also used by {@link BatchInterpreter}
+     *
+     * @return true if a lit pixel has been turned off
+     */
+    boolean drawSprite(int x, int y, int address, int height) {
+        boolean collision = false;
+
+        if (superMode) {
+            //DXY0: Draw a sprite (X, Y) size (8, 16). Sprite is located at I
+            //Per il SCHIP-8 non c'è wrapping: i pixel fuori dallo schermo vengono tagliati
+            for (int _y = 0; _y < 16; _y++) {
+                collision |= display.drawHires(x, y + _y, memory[address + _y] & 0xFF);
+            }
+        } else {
+            //DXYN: Draw a sprite (X, Y) size (8, N). Sprite is located at I
+            //Il FrameBuffer fa il wrapping, per evitare che l'indice vada outofbounds
+            for (int _y = 0; _y < height; _y++) {
+                collision |= display.drawLores(x, y + _y, memory[address + _y] & 0xFF);
             }
+        }
 
+        needRedraw = true;
+        return collision;
+    }
 
-            default:
-                unsupportedOpcode();
-                break;
+    //EX9E: Skips the next instruction if the key stored in VX is pressed.
+    void opEX9E(int x) {
+        int key = V[x] & 0xF;
+        if ((keys >> key & 1) == 1) {
+            if (traceFull) traceSink.message("Skipping next instruction if V[" + x + "] = " + (V[x] & 0xFF) + " is pressed");
+            pc += 4;
+        } else {
+            if (traceFull) traceSink.message("Not skipping next instruction if V[" + x + "] = " + (V[x] & 0xFF) + " is NOT pressed");
+            pc += 2;
+        }
+    }
+
+    //EXA1: Skips the next instruction if the key stored in VX isn't pressed.
+    void opEXA1(int x) {
+        int key = V[x] & 0xF;
+        if ((keys >> key & 1) == 0) {
+            if (traceFull) traceSink.message("Skipping next instruction if V[" + x + "] = " + (V[x] & 0xFF) + " is NOT pressed");
+            pc += 4;
+        } else {
+            if (traceFull) traceSink.message("Not skipping next instruction if V[" + x + "] = " + (V[x] & 0xFF) + " is pressed");
+            pc += 2;
+        }
+    }
+
+    //FX07: Sets VX to the value of the delay timer.
+    void opFX07(int x) {
+        V[x] = (byte) delay_timer;
+
+        if (traceFull) traceSink.message("Setting V[" + x + "] to delay_timer value " + delay_timer);
+        pc += 2;
+    }
+
+    //FX0A: A key press is awaited, and then stored in VX.
+    void opFX0A(int x) {
+        waitingForKey = keys == 0;
+        if (keys != 0) {
+            V[x] = (byte) Integer.numberOfTrailingZeros(keys);
+            pc += 2;
+        }
+
+        if (traceFull) traceSink.message("Awaiting key press to be stored in V[" + x + "]");
+    }
+
+    //FX15: Sets the delay timer to VX
+    void opFX15(int x) {
+        delay_timer = V[x] & 0xFF;
+
+        if (traceFull) traceSink.message("Setting delay_timer to V[" + x + "] = " + (V[x] & 0xFF));
+        pc += 2;
+    }
+
+    //FX18: Sets the sound timer to VX
+    void opFX18(int x) {
+        sound_timer = V[x] & 0xFF;
+
+        if (traceFull) traceSink.message("Setting sound_timer to V[" + x + "] = " + (V[x] & 0xFF));
+        pc += 2;
+    }
+
+    //FX1E: Adds VX to I. VF is not affected. (or maybe yes?)
+    void opFX1E(int x) {
+        //V[0xF] = (char) ((I + V[x] > 0xfff) ? 1 : 0);
+        I = (I + (V[x] & 0xFF)) & 0xFFFF;
+
+        if (traceFull) traceSink.message("Adding V[" + x + "] with the value of " + (V[x] & 0xFF) + " to I");
+        pc += 2;
+    }
+
+    //FX29: Sets I to the location of the sprite for the character VX (Fontset)
+    void opFX29(int x) {
+        int character = V[x] & 0xFF;
+        I = 0x050 + (character * 5);
+
+        if (traceFull) traceSink.message("Setting I to Character V[" + x + "] = " + (V[x] & 0xFF) + " Offset to 0x" + Integer.toHexString(I).toUpperCase());
+        pc += 2;
+    }
+
+    //FX33: Store a binary-coded decimal value VX in I, I + 1 and I + 2
+    void opFX33(int x) {
+        //Otteniamo il numero e lo salviamo come decimale
+        int value = V[x] & 0xFF;
+
+        //Otteniamo centinaio, decina ed unità dal numero
+        int hundreds = (value - (value % 100)) / 100;
+        value -= hundreds * 100;
+        int tens = (value - (value % 10)) / 10;
+        value -= tens * 10;
+
+        //Li salviamo in I, I+1 e I+2
+        byte[] memory = writableMemory();
+        memory[I] = (byte) hundreds;
+        memory[I + 1] = (byte) tens;
+        memory[I + 2] = (byte) value;
+        codeWritten(I, 3);
+
+        if (traceFull) traceSink.message("Storing Binary-Coded Decimal V[" + x + "] = " + value + " as {" + hundreds + ", " + tens + ", " + value + "}");
+        pc += 2;
+    }
+
+    //FX55: Stores V0 to VX (including VX) in memory starting at address I. The offset from I is increased by 1 for each value written, but I itself is left unmodified.
+    void opFX55(int x) {
+        byte[] memory = writableMemory();
+        for (int i = 0; i < x; i++) {
+            memory[I + i] = V[i];
+        }
+        codeWritten(I, x);
+
+        //Nell'interprete originale, I viene modificato
+        //ma useremo il comportamento delle versioni successive (SUPER CHIP-8)
+        //
+        //Usando la variabile superMode, posso cambiare comportamento a seconda della rom selezionata
+        if (!superMode) {
+            I = (I + x + 1) & 0xFFFF;
         }
 
+        if (traceFull) traceSink.message("Storing V[0] to V[" + x + "] to the values of memory[0x" + Integer.toHexString(I).toUpperCase() + "]");
+        pc += 2;
+    }
+
+    //FX65: Fills V0 to VX (including VX) with values from memory starting at address I.
+    void opFX65(int x) {
+        for (int i = 0; i <= x; i++) {
+            V[i] = memory[I + i];
+        }
+
+        //Nell'interprete originale, I viene modificato
+        //ma useremo il comportamento delle versioni successive (SUPER CHIP-8)
+        //
+        //Usando la variabile superMode, posso cambiare comportamento a seconda della rom selezionata
+        if (!superMode) {
+            I = (I + x + 1) & 0xFFFF;
+        }
+
+        if (traceFull) traceSink.message("Setting V[0] to V[" + x + "] to the values of memory[0x" + Integer.toHexString(I).toUpperCase() + "]");
+        pc += 2;
+    }
+
+    //FX75: SCHIP-8: Save v0-vX to flag registers.
+    void opFX75(int x) {
+        for (int i = 0; i <= x; i++) {
+            flag[i] = V[i];
+        }
+
+        if (traceFull) traceSink.message("SCHIP-8: Setting flag[0] to flag[" + x + "] to the values of V[0] to V[" + x + "]");
+        pc += 2;
+    }
+
+    //FX85: Restore v0-vX from flag registers.
+    void opFX85(int x) {
+        for (int i = 0; i <= x; i++) {
+            V[i] = flag[i];
+        }
+
+        if (traceFull) traceSink.message("SCHIP-8: Setting V[0] to V[" + x + "] to the values of flag[0] to flag[" + x + "]");
+        pc += 2;
+    }
+
+    //FX94: COSMAC ELF: Load I with the font sprite of the 6-bit ASCII value found in VX; V0 is set to the symbol length
+    void opFX94(int x) {
+        int c = (V[x] & 0xFF) * 3 + 0x100;
+
+        byte[] memory = writableMemory();
+        int ab = memory[c] & 0xFF;
+        int cd = memory[c + 1] & 0xFF;
+        int ef = memory[c + 2] & 0xFF;
+
+        memory[0x1C0] = memory[0xF0 + (ef & 0xF)];
+        memory[0x1C1] = memory[0xF0 + (cd >> 4)];
+        memory[0x1C2] = memory[0xF0 + (cd & 0xF)];
+        memory[0x1C3] = memory[0xF0 + (ab >> 4)];
+        memory[0x1C4] = memory[0xF0 + (ab & 0xF)];
+        codeWritten(0x1C0, 5);
+
+        V[0] = (byte) (ef >> 4);
+
+        I = 0x1C0;
+
+        if (traceFull) traceSink.message("COSMAC ELF: Loading I with font sprite from the value of V[" + x + "]");
+        pc += 2;
+    }
+
+    /**
+     * Decrements the delay and sound timers.
+     * Must be called at 60 Hz, independently from the instruction rate.
+     */
+    public void tickTimers() {
         if (sound_timer > 0)
             --sound_timer;
         if (delay_timer > 0)
@@ -878,12 +1157,20 @@ public class Chip {
         }
     }
 
-    private void unsupportedOpcode() {
+    void unsupportedOpcode() {
         System.err.println("Unsupported Opcode!");
         System.exit(0);
     }
 
+    /**
+     * One byte per pixel, row after row (64 or 128 pixels per row).
+     * The array is reused, prefer {@link #getFrameBuffer()} in new code.
+     */
     public byte[] getDisplay() {
+        return display.toPixels();
+    }
+
+    public FrameBuffer getFrameBuffer() {
         return display;
     }
 
@@ -911,63 +1198,319 @@ public class Chip {
         return superMode;
     }
 
-    public void loadFontset() {
-        for (int i = 0; i < ChipData.fontset.length; i++) {
-            memory[0x50 + i] = (char) (ChipData.fontset[i] & 0xFF);
+    /**
+     * The memory of this Chip, that can be written: if it was shared with other
+     * Chips ({@link #shareProgram(Rom)}) it becomes a private copy first
+     */
+    public byte[] getMemory() {
+        return writableMemory();
+    }
+
+    /**
+     * Reads a byte of memory, without making a shared memory private
+     */
+    public int peek(int address) {
+        return memory[address & 0xFFF] & 0xFF;
+    }
+
+    byte[] peekMemory() {
+        return memory;
+    }
+
+    public char[] getStack() {
+        return stack;
+    }
+
+    /**
+     * @return true while the memory is still the shared image of a Rom
+     */
+    public boolean isMemoryShared() {
+        return memoryShared;
+    }
+
+    //Copy-on-write: solo le istruzioni che scrivono in memoria passano di qui
+    private byte[] writableMemory() {
+        if (memoryShared) {
+            memory = memory.clone();
+            memoryShared = false;
         }
+        return memory;
     }
 
-    public void loadProgram(String file) {
-        DataInputStream input = null;
-        try {
-            input = new DataInputStream(new FileInputStream(new File(file)));
+    public byte[] getV() {
+        return V;
+    }
+
+    public int getI() {
+        return I;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getStackPointer() {
+        return stackPointer;
+    }
+
+    public int getDelayTimer() {
+        return delay_timer;
+    }
 
-            int offset = 0;
-            while (input.available() > 0) {
-                memory[0x200 + offset] = (char) (input.readByte() & 0xFF);
-                offset++;
+    public int getSoundTimer() {
+        return sound_timer;
+    }
+
+    /**
+     * Copies the whole machine state into state. Allocates nothing.
+     */
+    public void saveState(ChipState state) {
+        System.arraycopy(memory, 0, state.memory, 0, ChipState.MEMORY_SIZE);
+        System.arraycopy(V, 0, state.V, 0, V.length);
+        System.arraycopy(flag, 0, state.flag, 0, flag.length);
+        System.arraycopy(stack, 0, state.stack, 0, stack.length);
+        state.I = I;
+        state.pc = pc;
+        state.stackPointer = stackPointer;
+        state.delayTimer = delay_timer;
+        state.soundTimer = sound_timer;
+        state.superMode = superMode;
+        state.stopEmulation = stopEmulation;
+        state.hires = display.isHires();
+        display.saveRows(state.displayRows);
+        state.randomState = random.getState();
+    }
+
+    /**
+     * Restores a state saved with {@link #saveState(ChipState)}. Allocates nothing.
+     */
+    public void loadState(ChipState state) {
+        System.arraycopy(state.memory, 0, writableMemory(), 0, ChipState.MEMORY_SIZE);
+        System.arraycopy(state.V, 0, V, 0, V.length);
+        System.arraycopy(state.flag, 0, flag, 0, flag.length);
+        System.arraycopy(state.stack, 0, stack, 0, stack.length);
+        I = state.I & 0xFFFF;
+        pc = (char) state.pc;
+        stackPointer = state.stackPointer;
+        delay_timer = state.delayTimer & 0xFF;
+        sound_timer = state.soundTimer & 0xFF;
+        superMode = state.superMode;
+        stopEmulation = state.stopEmulation;
+        waitingForKey = false;
+        display.loadRows(state.hires, state.displayRows);
+        random.setState(state.randomState);
+        flushBlocks();
+        checkCompiledCode();
+        needRedraw = true;
+    }
+
+    /**
+     * Copies V, I and pc into a lane of a {@link BatchInterpreter}.
+     * With all also the stack and the timers, which only the batch itself changes.
+     */
+    void storeRegisters(BatchInterpreter batch, int lane, boolean all) {
+        for (int i = 0; i < 16; i++) {
+            batch.V[i][lane] = V[i] & 0xFF;
+        }
+        batch.I[lane] = I;
+        batch.pc[lane] = pc;
+        if (all) {
+            for (int i = 0; i < 16; i++) {
+                batch.stack[i][lane] = stack[i];
             }
+            batch.stackPointer[lane] = stackPointer;
+            batch.delayTimer[lane] = delay_timer;
+            batch.soundTimer[lane] = sound_timer;
+        }
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
-        } finally {
-            if (input != null) {
-                try {
-                    input.close();
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                    System.exit(0);
-                }
+    /**
+     * Takes V, I and pc from a lane of a {@link BatchInterpreter}, with all also
+     * the stack and the timers
+     */
+    void loadRegisters(BatchInterpreter batch, int lane, boolean all) {
+        for (int i = 0; i < 16; i++) {
+            V[i] = (byte) batch.V[i][lane];
+        }
+        I = batch.I[lane] & 0xFFFF;
+        pc = (char) batch.pc[lane];
+        if (all) {
+            for (int i = 0; i < 16; i++) {
+                stack[i] = (char) batch.stack[i][lane];
             }
+            stackPointer = batch.stackPointer[lane];
+            delay_timer = batch.delayTimer[lane] & 0xFF;
+            sound_timer = batch.soundTimer[lane] & 0xFF;
+        }
+    }
+
+    /**
+     * Seeds the generator used by CXNN: the same seed gives the same run
+     */
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    public void setRandomSource(RandomSource random) {
+        this.random = random;
+    }
+
+    public RandomSource getRandomSource() {
+        return random;
+    }
+
+    /**
+     * Sets the trace level and the sink receiving the trace records.
+     * With {@link TraceLevel#OFF} (or a null sink) nothing is traced.
+     */
+    public void setTrace(TraceLevel level, TraceSink sink) {
+        if (level == null || sink == null) {
+            level = TraceLevel.OFF;
+            sink = null;
+        }
+        traceLevel = level;
+        traceSink = sink;
+        traceOpcodes = level != TraceLevel.OFF;
+        traceFull = level == TraceLevel.FULL;
+    }
+
+    public TraceLevel getTraceLevel() {
+        return traceLevel;
+    }
+
+    public TraceSink getTraceSink() {
+        return traceSink;
+    }
+
+    /**
+     * Selects how opcodes are decoded. Both engines execute the same instructions,
+     * SWITCH is kept to check the dispatch table against it.
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Attaches a debugger, or detaches it with null. Call it before the
+     * emulation thread starts: the debugger is then driven through its own methods.
+     */
+    public void setDebugger(Debugger debugger) {
+        this.debugger = debugger;
+    }
+
+    public Debugger getDebugger() {
+        return debugger;
+    }
+
+    /**
+     * Attaches a profiler, or detaches it with null. Like the debugger, set it
+     * before the emulation thread starts; an active debugger takes precedence.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Runs the code compiled by {@link AotCompiler} instead of interpreting it,
+     * null to go back to the engine. The program is used only while the memory
+     * holds the ROM it was compiled from: it is checked now and at every
+     * program or state loaded.
+     */
+    public void setCompiledProgram(CompiledProgram program) {
+        compiledProgram = program;
+        checkCompiledCode();
+    }
+
+    public CompiledProgram getCompiledProgram() {
+        return compiledProgram;
+    }
+
+    /**
+     * @return true if run(int) executes the compiled program, false if there is
+     * none, it was compiled from another ROM or the ROM overwrote its code
+     */
+    public boolean isCompiledCodeValid() {
+        return compiledCodeValid;
+    }
+
+    private void checkCompiledCode() {
+        compiledCodeValid = compiledProgram != null && memory != null && compiledProgram.matches(memory);
+    }
+
+    public void loadFontset() {
+        writeFontset(writableMemory());
+    }
+
+    static void writeFontset(byte[] memory) {
+        for (int i = 0; i < ChipData.fontset.length; i++) {
+            memory[0x50 + i] = (byte) ChipData.fontset[i];
         }
     }
 
+    public void loadProgram(String file) {
+        loadProgram(new File(file));
+    }
+
     public void loadProgram(File file) {
         if (file == null) {
             System.err.println("File not found");
             System.exit(0);
         }
-        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
-
-            int offset = 0;
-            while (input.available() > 0) {
-                memory[0x200 + offset] = (char) (input.readByte() & 0xFF);
-                offset++;
-            }
-
+        try {
+            loadProgram(Rom.load(file.toPath()));
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
         }
     }
 
-    public void setKeyBuffer(int[] keyBuffer) {
-        if (keyBuffer == null) {
-            return;
-        }
-        for (int i = 0; i < keys.length; i++) {
-            keys[i] = (byte) keyBuffer[i];
-        }
+    /**
+     * Copies an already read program into memory, without touching the disk
+     */
+    public void loadProgram(Rom rom) {
+        flushBlocks();
+        rom.copyTo(writableMemory());
+        checkCompiledCode();
+    }
+
+    /**
+     * Replaces the whole memory with the image of rom (fontset and program, as
+     * after {@link #init()} and {@link #loadProgram(Rom)}), without copying it:
+     * Chips running the same Rom share one read-only image until they write to
+     * memory, then the writer gets its own copy.
+     */
+    public void shareProgram(Rom rom) {
+        flushBlocks();
+        memory = rom.getImage();
+        memoryShared = true;
+        checkCompiledCode();
+    }
+
+    /**
+     * Sets the pressed keys, bit n of mask is key n. Called once per frame,
+     * the instructions read the field directly
+     */
+    public void setKeys(int mask) {
+        keys = mask & 0xFFFF;
+    }
+
+    /**
+     * @return true if the Chip is stopped on FX0A, waiting for a key: until
+     * {@link #setKeys(int)} is called with a key pressed, running it changes nothing
+     */
+    public boolean isWaitingForKey() {
+        return waitingForKey;
+    }
+
+    public int getKeys() {
+        return keys;
     }
 }
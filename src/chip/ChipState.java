@@ -0,0 +1,64 @@
+package chip;
+
+/**
+ * A copy of the whole machine state of a Chip: memory, registers, stack,
+ * timers, display and the state of the random generator.
+ *
+ * All the arrays are allocated once, so {@link Chip#saveState(ChipState)} and
+ * {@link Chip#loadState(ChipState)} only copy and can be called every frame.
+ * {@link StateCodec} writes and reads states in a compact binary format.
+ */
+public class ChipState {
+
+    static final int MEMORY_SIZE = 4096;
+
+    final byte[] memory = new byte[MEMORY_SIZE];
+    final byte[] V = new byte[16];
+    final byte[] flag = new byte[8];
+    final char[] stack = new char[16];
+    int I;
+    int pc;
+    int stackPointer;
+    int delayTimer;
+    int soundTimer;
+    boolean superMode;
+    boolean stopEmulation;
+    long randomState;
+
+    //Righe dello schermo come in FrameBuffer, lores usa solo le prime 32
+    final long[] displayRows = new long[FrameBuffer.HIRES_HEIGHT * 2];
+    boolean hires;
+
+    public void copyFrom(ChipState other) {
+        System.arraycopy(other.memory, 0, memory, 0, MEMORY_SIZE);
+        System.arraycopy(other.V, 0, V, 0, V.length);
+        System.arraycopy(other.flag, 0, flag, 0, flag.length);
+        System.arraycopy(other.stack, 0, stack, 0, stack.length);
+        I = other.I;
+        pc = other.pc;
+        stackPointer = other.stackPointer;
+        delayTimer = other.delayTimer;
+        soundTimer = other.soundTimer;
+        superMode = other.superMode;
+        stopEmulation = other.stopEmulation;
+        randomState = other.randomState;
+        System.arraycopy(other.displayRows, 0, displayRows, 0, displayRows.length);
+        hires = other.hires;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getI() {
+        return I;
+    }
+
+    public int getV(int register) {
+        return V[register] & 0xFF;
+    }
+
+    public int getMemory(int address) {
+        return memory[address] & 0xFF;
+    }
+}
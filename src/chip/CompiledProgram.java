@@ -0,0 +1,132 @@
+package chip;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A ROM compiled ahead of time by {@link AotCompiler}: every basic block found
+ * from 0x200 is a static method of the generated subclass, and a switch on the
+ * pc picks the block to run.
+ *
+ * The compiled code is only used while the memory it was compiled from is
+ * unchanged: the Chip checks it when a program or a state is loaded and drops
+ * it when the program writes over its own code. Addresses without a compiled
+ * block (computed jumps with BNNN, FX0A, code found only at run time) and blocks
+ * that don't fit in the instruction budget are interpreted one instruction at
+ * a time.
+ *
+ * A compiled program has no state, one instance can be attached to any
+ * number of Chips.
+ */
+public abstract class CompiledProgram {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    //Il programma come è stato compilato, un char per byte
+    private final String program;
+    //Bit per indirizzo, a 1 se fa parte di un blocco compilato
+    private final long[] code = new long[4096 / 64];
+
+    /**
+     * @param program the bytes of the ROM, one char each
+     * @param ranges  start and end (excluded) of the compiled code, in pairs
+     */
+    protected CompiledProgram(String program, int[] ranges) {
+        this.program = program;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int a = ranges[i]; a < ranges[i + 1]; a++) {
+                code[a >> 6] |= 1L << a;
+            }
+        }
+    }
+
+    /**
+     * Runs the block starting at pc, if there is one and it is at most budget
+     * instructions long
+     *
+     * @return the instructions executed, 0 if the block has not been run
+     */
+    protected abstract int execute(Chip chip, int pc, int budget);
+
+    /**
+     * Loads a class written by {@link AotCompiler}
+     *
+     * @throws IOException if the file can't be read or is not a compiled program
+     */
+    public static CompiledProgram load(Path classFile) throws IOException {
+        byte[] bytes = Files.readAllBytes(classFile);
+        try {
+            //Definita nel package chip, così può chiamare gli handler del Chip
+            Class<?> type = LOOKUP.defineClass(bytes);
+            return (CompiledProgram) type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError | IllegalArgumentException e) {
+            throw new IOException(classFile + ": not a compiled CHIP-8 program", e);
+        }
+    }
+
+    /**
+     * Executes up to maxInstructions instructions
+     *
+     * @return the instructions executed, fewer only if the emulation stopped
+     */
+    final int run(Chip chip, int maxInstructions) {
+        int executed = 0;
+        while (executed < maxInstructions && !chip.isEmulationStopped()) {
+            //Il programma ha riscritto il proprio codice: da qui in poi si interpreta
+            if (!chip.isCompiledCodeValid()) {
+                return executed + chip.runEngine(maxInstructions - executed);
+            }
+            int done = execute(chip, chip.getPc(), maxInstructions - executed);
+            if (done == 0) {
+                chip.run();
+                done = 1;
+                //FX0A senza tasti: il resto del budget lo ripeterebbe a vuoto
+                if (chip.isWaitingForKey()) {
+                    return maxInstructions;
+                }
+            }
+            executed += done;
+        }
+        return executed;
+    }
+
+    /**
+     * @return true if the compiled code is the same as in memory
+     */
+    boolean matches(byte[] memory) {
+        for (int a = Rom.START; a < 4096; a++) {
+            if (covers(a)) {
+                int offset = a - Rom.START;
+                if (offset >= program.length() || (memory[a] & 0xFF) != program.charAt(offset)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any of the bytes from address belongs to compiled code
+     */
+    boolean covers(int address, int length) {
+        for (int a = address; a < address + length; a++) {
+            if (covers(a & 0xFFF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean covers(int address) {
+        return (code[address >> 6] & (1L << address)) != 0;
+    }
+
+    /**
+     * @return the length of the ROM the program was compiled from
+     */
+    public int getLength() {
+        return program.length();
+    }
+}
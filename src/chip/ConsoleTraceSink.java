@@ -0,0 +1,41 @@
+package chip;
+
+import java.io.PrintStream;
+
+/**
+ * Writes the trace on a PrintStream, in the same format the emulator
+ * always used: "OPCODE: message".
+ */
+public class ConsoleTraceSink implements TraceSink {
+
+    private final PrintStream out;
+    private boolean lineOpen;
+
+    public ConsoleTraceSink() {
+        this(System.out);
+    }
+
+    public ConsoleTraceSink(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void opcode(int pc, int opcode) {
+        if (lineOpen) {
+            out.println();
+        }
+        out.print(Integer.toHexString(opcode).toUpperCase() + ": ");
+        lineOpen = true;
+    }
+
+    @Override
+    public void message(String message) {
+        out.println(message);
+        lineOpen = false;
+    }
+
+    @Override
+    public void flush() {
+        out.flush();
+    }
+}
@@ -0,0 +1,448 @@
+package chip;
+
+import java.util.Arrays;
+
+/**
+ * Breakpoints, watchpoints and stepping for a Chip.
+ *
+ * While nothing is set the Chip does not even look at the debugger: every
+ * {@link Chip#run(int)} reads {@link #isActive()} once and goes on at full
+ * speed. When something is set, the instructions are executed one at a time:
+ * breakpoints are a bitmap over the 4 KB address space, so checking the pc
+ * costs one array read and a mask; watchpoints compare the watched values
+ * before and after every instruction.
+ *
+ * The commands come from the EDT, the checks run on the emulation thread: every
+ * change is published through the volatile {@link #isActive()}, that the
+ * emulation thread reads before using the other fields.
+ */
+public class Debugger {
+
+    /**
+     * Condition of a conditional breakpoint, evaluated before the instruction
+     */
+    @FunctionalInterface
+    public interface Condition {
+        boolean test(Chip chip);
+    }
+
+    //Bit per indirizzo, a 1 se c'è un breakpoint (con o senza condizione)
+    private final long[] breakpoints = new long[4096 / 64];
+    private final Condition[] conditions = new Condition[4096];
+    private final String[] conditionTexts = new String[4096];
+    private int breakpointCount;
+
+    /**
+     * The watched addresses, with room for their values before an instruction.
+     * Replaced as a whole, so the emulation thread never sees the addresses of
+     * one watch with the values of another.
+     */
+    private static final class MemoryWatch {
+        final int[] addresses;
+        final int[] values;
+
+        MemoryWatch(int[] addresses) {
+            this.addresses = addresses;
+            this.values = new int[addresses.length];
+        }
+    }
+
+    //Bit 0-15: V0-VF, bit 16: I
+    public static final int WATCH_I = 16;
+    private int watchedRegisters;
+    private final int[] registerValues = new int[17];
+    private volatile MemoryWatch memoryWatch = new MemoryWatch(new int[0]);
+
+    private volatile boolean active;
+    private volatile boolean paused;
+    private volatile String pauseReason;
+    private volatile boolean pauseRequested;
+    private volatile boolean stepRequested;
+    //Step over/out: ci si ferma quando lo stack torna a questa profondità
+    private volatile int untilDepth = -1;
+    //Dopo una ripresa, il breakpoint sul pc corrente non scatta subito
+    private int pausedAt = -1;
+    private int skipAddress = -1;
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return why the emulation stopped, null while running
+     */
+    public String getPauseReason() {
+        return pauseReason;
+    }
+
+    public synchronized void addBreakpoint(int address) {
+        addBreakpoint(address, null, null);
+    }
+
+    /**
+     * @param condition the breakpoint stops only when it is true, null for always
+     * @param text      the condition as written by the user, shown by {@link #getBreakpoints()}
+     */
+    public synchronized void addBreakpoint(int address, Condition condition, String text) {
+        address &= 0xFFF;
+        if (!hasBreakpoint(address)) {
+            breakpointCount++;
+        }
+        breakpoints[address >> 6] |= 1L << address;
+        conditions[address] = condition;
+        conditionTexts[address] = text;
+        update();
+    }
+
+    public synchronized void removeBreakpoint(int address) {
+        address &= 0xFFF;
+        if (hasBreakpoint(address)) {
+            breakpointCount--;
+        }
+        breakpoints[address >> 6] &= ~(1L << address);
+        conditions[address] = null;
+        conditionTexts[address] = null;
+        update();
+    }
+
+    public synchronized boolean hasBreakpoint(int address) {
+        return (breakpoints[(address & 0xFFF) >> 6] & (1L << address)) != 0;
+    }
+
+    /**
+     * @return one line per breakpoint, "0x234" or "0x234 if V3 == 0x10"
+     */
+    public synchronized String[] getBreakpoints() {
+        String[] lines = new String[breakpointCount];
+        int n = 0;
+        for (int address = 0; address < 4096; address++) {
+            if (hasBreakpoint(address)) {
+                lines[n++] = String.format("0x%03X", address)
+                        + (conditionTexts[address] != null ? " if " + conditionTexts[address] : "");
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Stops after an instruction that changes VX, or I with {@link #WATCH_I}
+     */
+    public synchronized void watchRegister(int register) {
+        watchedRegisters |= 1 << register;
+        update();
+    }
+
+    public synchronized void unwatchRegister(int register) {
+        watchedRegisters &= ~(1 << register);
+        update();
+    }
+
+    /**
+     * Stops after an instruction that changes the byte at address
+     */
+    public synchronized void watchMemory(int address) {
+        address &= 0xFFF;
+        int[] addresses = memoryWatch.addresses;
+        for (int watched : addresses) {
+            if (watched == address) {
+                return;
+            }
+        }
+        addresses = Arrays.copyOf(addresses, addresses.length + 1);
+        addresses[addresses.length - 1] = address;
+        memoryWatch = new MemoryWatch(addresses);
+        update();
+    }
+
+    public synchronized void unwatchMemory(int address) {
+        memoryWatch = new MemoryWatch(Arrays.stream(memoryWatch.addresses).filter(a -> a != (address & 0xFFF)).toArray());
+        update();
+    }
+
+    /**
+     * @return one line per watchpoint, "V3", "I" or "[0x300]"
+     */
+    public synchronized String[] getWatches() {
+        int[] addresses = memoryWatch.addresses;
+        String[] lines = new String[Integer.bitCount(watchedRegisters) + addresses.length];
+        int n = 0;
+        for (int register = 0; register <= WATCH_I; register++) {
+            if ((watchedRegisters & (1 << register)) != 0) {
+                lines[n++] = register == WATCH_I ? "I" : String.format("V%X", register);
+            }
+        }
+        for (int address : addresses) {
+            lines[n++] = String.format("[0x%03X]", address);
+        }
+        return lines;
+    }
+
+    /**
+     * Stops before the next instruction
+     */
+    public synchronized void pause() {
+        pauseRequested = true;
+        update();
+    }
+
+    public synchronized void resume() {
+        untilDepth = -1;
+        resumeRunning();
+    }
+
+    /**
+     * Executes one instruction, then stops again. Only while paused.
+     */
+    public synchronized void step() {
+        if (paused) {
+            stepRequested = true;
+            update();
+        }
+    }
+
+    /**
+     * Like {@link #step()}, but a 2NNN runs the whole subroutine, with the
+     * timers running, until it returns
+     */
+    public synchronized void stepOver(Chip chip) {
+        if (!paused) {
+            return;
+        }
+        int pc = chip.getPc();
+        byte[] memory = chip.peekMemory();
+        if ((memory[pc] & 0xF0) == 0x20) {
+            untilDepth = chip.getStackPointer();
+            resumeRunning();
+        } else {
+            step();
+        }
+    }
+
+    /**
+     * Runs until the current subroutine returns with 00EE
+     */
+    public synchronized void stepOut(Chip chip) {
+        if (!paused) {
+            return;
+        }
+        if (chip.getStackPointer() == 0) {
+            step();
+        } else {
+            untilDepth = chip.getStackPointer() - 1;
+            resumeRunning();
+        }
+    }
+
+    private void resumeRunning() {
+        skipAddress = -1;
+        if (paused) {
+            skipAddress = pausedAt;
+        }
+        paused = false;
+        pauseReason = null;
+        update();
+    }
+
+    private void update() {
+        active = breakpointCount > 0 || watchedRegisters != 0 || memoryWatch.addresses.length > 0
+                || paused || pauseRequested || stepRequested || untilDepth >= 0;
+    }
+
+    private synchronized void stop(Chip chip, String reason) {
+        paused = true;
+        pausedAt = chip.getPc();
+        pauseReason = reason;
+        pauseRequested = false;
+        untilDepth = -1;
+        update();
+    }
+
+    /**
+     * Executes a step requested while paused. Called by the emulation thread
+     * while {@link #isPaused()}, the timers don't run.
+     *
+     * @return true if an instruction has been executed
+     */
+    public boolean poll(Chip chip) {
+        if (!active || !stepRequested || chip.isEmulationStopped()) {
+            return false;
+        }
+        stepRequested = false;
+        synchronized (this) {
+            paused = false;
+        }
+        execute(chip);
+        if (!paused) {
+            stop(chip, "Step");
+        }
+        return true;
+    }
+
+    /**
+     * Executes up to maxInstructions instructions one at a time, checking the
+     * breakpoints before and the watchpoints after each of them
+     *
+     * @return the instructions executed, fewer if the debugger stopped the Chip
+     */
+    int run(Chip chip, int maxInstructions) {
+        int executed = 0;
+        while (executed < maxInstructions && !chip.isEmulationStopped()) {
+            if (paused) {
+                return executed;
+            }
+            if (pauseRequested) {
+                stop(chip, "Paused");
+                return executed;
+            }
+            int pc = chip.getPc();
+            if (pc == skipAddress) {
+                skipAddress = -1;
+            } else if ((breakpoints[(pc & 0xFFF) >> 6] & (1L << pc)) != 0) {
+                Condition condition = conditions[pc & 0xFFF];
+                if (condition == null || condition.test(chip)) {
+                    String text = conditionTexts[pc & 0xFFF];
+                    stop(chip, String.format("Breakpoint at 0x%03X", pc) + (text != null ? " (" + text + ")" : ""));
+                    return executed;
+                }
+            }
+            execute(chip);
+            executed++;
+            if (paused) {
+                return executed;
+            }
+            int depth = untilDepth;
+            if (depth >= 0 && chip.getStackPointer() <= depth) {
+                stop(chip, "Step completed");
+                return executed;
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * One instruction, stopping afterwards if a watched value changed
+     */
+    private void execute(Chip chip) {
+        int registers = watchedRegisters;
+        //Indirizzi e valori dallo stesso oggetto, anche se l'EDT lo sostituisce nel frattempo
+        MemoryWatch watch = memoryWatch;
+        int[] addresses = watch.addresses;
+        int[] values = watch.values;
+        if (registers != 0) {
+            byte[] V = chip.getV();
+            for (int r = 0; r < 16; r++) {
+                registerValues[r] = V[r] & 0xFF;
+            }
+            registerValues[WATCH_I] = chip.getI();
+        }
+        byte[] memory = chip.peekMemory();
+        for (int i = 0; i < addresses.length; i++) {
+            values[i] = memory[addresses[i]];
+        }
+
+        chip.run();
+
+        if (registers != 0) {
+            byte[] V = chip.getV();
+            for (int r = 0; r <= WATCH_I; r++) {
+                if ((registers & (1 << r)) == 0) {
+                    continue;
+                }
+                int value = r == WATCH_I ? chip.getI() : V[r] & 0xFF;
+                if (value != registerValues[r]) {
+                    stop(chip, String.format("%s changed from 0x%02X to 0x%02X",
+                            r == WATCH_I ? "I" : String.format("V%X", r), registerValues[r], value));
+                    return;
+                }
+            }
+        }
+        memory = chip.peekMemory();
+        for (int i = 0; i < addresses.length; i++) {
+            if (memory[addresses[i]] != values[i]) {
+                stop(chip, String.format("[0x%03X] changed from 0x%02X to 0x%02X",
+                        addresses[i], values[i] & 0xFF, memory[addresses[i]] & 0xFF));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses a condition like "V3 == 0x10", "I >= 0x300", "DT == 0" or
+     * "[0x300] != 5". Registers: V0-VF, I, PC, SP, DT, ST; operators:
+     * ==, !=, &lt;, &lt;=, &gt;, &gt;=; numbers in decimal or 0x hex.
+     *
+     * @throws IllegalArgumentException if the text is not a condition
+     */
+    public static Condition parseCondition(String text) {
+        String[] parts = text.trim().split("\\s+");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected: operand operator value, like V3 == 0x10");
+        }
+        ValueReader left = parseOperand(parts[0].toUpperCase());
+        int right = parseNumber(parts[2]);
+        switch (parts[1]) {
+            case "==":
+                return chip -> left.read(chip) == right;
+            case "!=":
+                return chip -> left.read(chip) != right;
+            case "<":
+                return chip -> left.read(chip) < right;
+            case "<=":
+                return chip -> left.read(chip) <= right;
+            case ">":
+                return chip -> left.read(chip) > right;
+            case ">=":
+                return chip -> left.read(chip) >= right;
+            default:
+                throw new IllegalArgumentException("Unknown operator " + parts[1]);
+        }
+    }
+
+    private interface ValueReader {
+        int read(Chip chip);
+    }
+
+    private static ValueReader parseOperand(String operand) {
+        switch (operand) {
+            case "I":
+                return Chip::getI;
+            case "PC":
+                return Chip::getPc;
+            case "SP":
+                return Chip::getStackPointer;
+            case "DT":
+                return Chip::getDelayTimer;
+            case "ST":
+                return Chip::getSoundTimer;
+            default:
+                break;
+        }
+        if (operand.length() == 2 && operand.charAt(0) == 'V') {
+            int register = Character.digit(operand.charAt(1), 16);
+            if (register >= 0) {
+                return chip -> chip.getV()[register] & 0xFF;
+            }
+        }
+        if (operand.startsWith("[") && operand.endsWith("]")) {
+            int address = parseNumber(operand.substring(1, operand.length() - 1)) & 0xFFF;
+            return chip -> chip.peekMemory()[address] & 0xFF;
+        }
+        throw new IllegalArgumentException("Unknown operand " + operand);
+    }
+
+    /**
+     * Decimal, or hex with 0x
+     */
+    public static int parseNumber(String text) {
+        text = text.trim().toLowerCase();
+        try {
+            return text.startsWith("0x") ? Integer.parseInt(text.substring(2), 16) : Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + text);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package chip;
+
+/**
+ * How {@link Chip#run()} decodes the opcodes
+ */
+public enum Engine {
+
+    /**
+     * Nested switch on the opcode nibbles, decoded at every instruction
+     */
+    SWITCH,
+
+    /**
+     * One lookup in {@link OpcodeTable}, operands already extracted
+     */
+    TABLE,
+
+    /**
+     * Basic blocks compiled to JVM classes by {@link BlockCompiler}, falling back to
+     * the switch for the instructions that can't be compiled. Only used by
+     * {@link Chip#run(int)}, single steps always go through the switch.
+     */
+    BLOCKS
+}
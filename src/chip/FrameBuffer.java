@@ -0,0 +1,213 @@
+package chip;
+
+import java.util.Arrays;
+
+/**
+ * Bit-packed display: one long per 64 pixel row in lores (64x32), two longs per
+ * row in hires (128x64). The most significant bit of a word is its leftmost pixel.
+ *
+ * A sprite row is drawn with a shifted XOR, and collisions are found with an AND
+ * on the same words. Both resolutions are allocated once, switching mode just
+ * clears the rows of the new mode.
+ */
+public class FrameBuffer {
+
+    public static final int LORES_WIDTH = 64;
+    public static final int LORES_HEIGHT = 32;
+    public static final int HIRES_WIDTH = 128;
+    public static final int HIRES_HEIGHT = 64;
+
+    private final long[] loresRows = new long[LORES_HEIGHT];
+    private final long[] hiresRows = new long[HIRES_HEIGHT * 2];
+
+    //Vista "un byte per pixel" per chi usa ancora getDisplay(),
+    //allocata al primo uso e ricostruita solo quando lo schermo è cambiato
+    private byte[] loresPixels;
+    private byte[] hiresPixels;
+    private boolean pixelsStale;
+
+    private boolean hires;
+    private long[] rows = loresRows;
+
+    public boolean isHires() {
+        return hires;
+    }
+
+    /**
+     * Switches resolution and clears the screen
+     */
+    public void setHires(boolean hires) {
+        this.hires = hires;
+        rows = hires ? hiresRows : loresRows;
+        clear();
+    }
+
+    public int getWidth() {
+        return hires ? HIRES_WIDTH : LORES_WIDTH;
+    }
+
+    public int getHeight() {
+        return hires ? HIRES_HEIGHT : LORES_HEIGHT;
+    }
+
+    /**
+     * Number of longs for every row: 1 in lores, 2 in hires
+     */
+    public int getWordsPerRow() {
+        return hires ? 2 : 1;
+    }
+
+    /**
+     * The packed rows of the current mode. Row y starts at index y * getWordsPerRow().
+     */
+    public long[] getRows() {
+        return rows;
+    }
+
+    public void clear() {
+        Arrays.fill(rows, 0);
+        pixelsStale = true;
+    }
+
+    public boolean getPixel(int x, int y) {
+        int words = getWordsPerRow();
+        long word = rows[y * words + (x >> 6)];
+        return (word & (1L << (63 - (x & 63)))) != 0;
+    }
+
+    /**
+     * Lores sprite row: 8 pixels XORed at (x, y), wrapping around the screen edges.
+     *
+     * @return true if a lit pixel has been turned off
+     */
+    public boolean drawLores(int x, int y, int line) {
+        //Mettiamo la riga dello sprite nei bit più alti e la ruotiamo:
+        //la rotazione fa già il wrapping orizzontale
+        long bits = Long.rotateRight((long) (line & 0xFF) << 56, x & 63);
+        int row = y & (LORES_HEIGHT - 1);
+        boolean collision = (loresRows[row] & bits) != 0;
+        loresRows[row] ^= bits;
+        pixelsStale = true;
+        return collision;
+    }
+
+    /**
+     * Hires sprite row: 8 pixels XORed at (x, y), clipped at the screen edges.
+     *
+     * @return true if a lit pixel has been turned off
+     */
+    public boolean drawHires(int x, int y, int line) {
+        if (x >= HIRES_WIDTH || y >= HIRES_HEIGHT) {
+            return false;
+        }
+        long left = spriteWord(line, x);
+        long right = spriteWord(line, x - 64);
+        int index = y * 2;
+        boolean collision = ((hiresRows[index] & left) | (hiresRows[index + 1] & right)) != 0;
+        hiresRows[index] ^= left;
+        hiresRows[index + 1] ^= right;
+        pixelsStale = true;
+        return collision;
+    }
+
+    /**
+     * The 8 pixels of line placed at column shift of a 64 pixel word.
+     * Pixels falling outside the word are dropped.
+     */
+    private static long spriteWord(int line, int shift) {
+        long bits = (long) (line & 0xFF) << 56;
+        if (shift >= 64 || shift <= -8) {
+            return 0;
+        }
+        return shift >= 0 ? bits >>> shift : bits << -shift;
+    }
+
+    /**
+     * Moves the content of the screen n rows down, the top rows become black
+     */
+    public void scrollDown(int n) {
+        int words = getWordsPerRow();
+        int height = getHeight();
+        n = Math.min(n, height);
+        System.arraycopy(rows, 0, rows, n * words, (height - n) * words);
+        Arrays.fill(rows, 0, n * words, 0);
+        pixelsStale = true;
+    }
+
+    /**
+     * Moves the content of the screen n pixels to the right, in place
+     */
+    public void scrollRight(int n) {
+        if (hires) {
+            for (int i = 0; i < rows.length; i += 2) {
+                long left = rows[i];
+                rows[i] = left >>> n;
+                rows[i + 1] = (rows[i + 1] >>> n) | (left << (64 - n));
+            }
+        } else {
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] >>>= n;
+            }
+        }
+        pixelsStale = true;
+    }
+
+    /**
+     * Moves the content of the screen n pixels to the left, in place
+     */
+    public void scrollLeft(int n) {
+        if (hires) {
+            for (int i = 0; i < rows.length; i += 2) {
+                long right = rows[i + 1];
+                rows[i] = (rows[i] << n) | (right >>> (64 - n));
+                rows[i + 1] = right << n;
+            }
+        } else {
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] <<= n;
+            }
+        }
+        pixelsStale = true;
+    }
+
+    /**
+     * Copies the rows of the current mode into target
+     */
+    void saveRows(long[] target) {
+        System.arraycopy(rows, 0, target, 0, rows.length);
+    }
+
+    /**
+     * Switches to the given mode and copies its rows from source
+     */
+    void loadRows(boolean hires, long[] source) {
+        this.hires = hires;
+        rows = hires ? hiresRows : loresRows;
+        System.arraycopy(source, 0, rows, 0, rows.length);
+        pixelsStale = true;
+    }
+
+    /**
+     * One byte per pixel, 0 or 1, row after row. The array is reused and is only
+     * valid until the next change of the screen.
+     */
+    public byte[] toPixels() {
+        if (loresPixels == null) {
+            loresPixels = new byte[LORES_WIDTH * LORES_HEIGHT];
+            hiresPixels = new byte[HIRES_WIDTH * HIRES_HEIGHT];
+            pixelsStale = true;
+        }
+        byte[] pixels = hires ? hiresPixels : loresPixels;
+        if (pixelsStale) {
+            int width = getWidth();
+            int height = getHeight();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixels[y * width + x] = (byte) (getPixel(x, y) ? 1 : 0);
+                }
+            }
+            pixelsStale = false;
+        }
+        return pixels;
+    }
+}
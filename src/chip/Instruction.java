@@ -0,0 +1,10 @@
+package chip;
+
+/**
+ * A decoded opcode, with its operands already extracted
+ */
+@FunctionalInterface
+interface Instruction {
+
+    void execute(Chip chip);
+}
@@ -0,0 +1,196 @@
+package chip;
+
+/**
+ * Dispatch table with one decoded {@link Instruction} for each of the 65536 opcodes.
+ *
+ * Opcodes are decoded lazily the first time they are executed, then executing
+ * an instruction is an array lookup and a call. Instructions are immutable and
+ * hold no state, so the table is shared by all the Chip instances. Two threads
+ * decoding the same opcode at the same time just store equivalent objects.
+ */
+final class OpcodeTable {
+
+    private static final Instruction[] TABLE = new Instruction[0x10000];
+
+    private static final Instruction UNSUPPORTED = Chip::unsupportedOpcode;
+
+    //Gli opcode 0x00NN non riconosciuti dallo switch non fanno nulla
+    //(e non avanzano il pc), li manteniamo identici
+    private static final Instruction NOTHING = chip -> {
+    };
+
+    static Instruction get(int opcode) {
+        Instruction instruction = TABLE[opcode];
+        if (instruction == null) {
+            instruction = decode(opcode);
+            TABLE[opcode] = instruction;
+        }
+        return instruction;
+    }
+
+    /**
+     * Decodes all the opcodes at once, to avoid decoding while running
+     */
+    static void decodeAll() {
+        for (int opcode = 0; opcode < TABLE.length; opcode++) {
+            get(opcode);
+        }
+    }
+
+    /**
+     * Same decoding as {@link Chip#execute(int)}
+     */
+    static Instruction decode(int opcode) {
+        int x = (opcode & 0x0F00) >> 8;
+        int y = (opcode & 0x00F0) >> 4;
+        int n = opcode & 0x000F;
+        int nn = opcode & 0x00FF;
+        int nnn = opcode & 0x0FFF;
+
+        switch (opcode & 0xF000) {
+            case 0x0000:
+                switch (opcode & 0x00F0) {
+                    case 0x00C0:
+                        return chip -> chip.op00CN(n);
+                    case 0x00E0:
+                        switch (nn) {
+                            case 0x00E0:
+                                return Chip::op00E0;
+                            case 0x00EE:
+                                return Chip::op00EE;
+                            default:
+                                return UNSUPPORTED;
+                        }
+                    case 0x00F0:
+                        switch (nn) {
+                            case 0x00FB:
+                                return Chip::op00FB;
+                            case 0x00FC:
+                                return Chip::op00FC;
+                            case 0x00FD:
+                                return Chip::op00FD;
+                            case 0x00FE:
+                                return Chip::op00FE;
+                            case 0x00FF:
+                                return Chip::op00FF;
+                            default:
+                                return UNSUPPORTED;
+                        }
+                    default:
+                        return NOTHING;
+                }
+            case 0x1000:
+                return chip -> chip.op1NNN(nnn);
+            case 0x2000:
+                return chip -> chip.op2NNN(nnn);
+            case 0x3000:
+                return chip -> chip.op3XNN(x, nn);
+            case 0x4000:
+                return chip -> chip.op4XNN(x, nn);
+            case 0x5000:
+                switch (n) {
+                    case 0x0:
+                        return chip -> chip.op5XY0(x, y);
+                    case 0x1:
+                        return chip -> chip.op5XY1(x, y);
+                    case 0x2:
+                        return chip -> chip.op5XY2(x, y);
+                    case 0x3:
+                        return chip -> chip.op5XY3(x, y);
+                    default:
+                        return UNSUPPORTED;
+                }
+            case 0x6000:
+                return chip -> chip.op6XNN(x, nn);
+            case 0x7000:
+                return chip -> chip.op7XNN(x, nn);
+            case 0x8000:
+                switch (n) {
+                    case 0x0:
+                        return chip -> chip.op8XY0(x, y);
+                    case 0x1:
+                        return chip -> chip.op8XY1(x, y);
+                    case 0x2:
+                        return chip -> chip.op8XY2(x, y);
+                    case 0x3:
+                        return chip -> chip.op8XY3(x, y);
+                    case 0x4:
+                        return chip -> chip.op8XY4(x, y);
+                    case 0x5:
+                        return chip -> chip.op8XY5(x, y);
+                    case 0x6:
+                        return chip -> chip.op8XY6(x);
+                    case 0x7:
+                        return chip -> chip.op8XY7(x, y);
+                    case 0xE:
+                        return chip -> chip.op8XYE(x);
+                    default:
+                        return UNSUPPORTED;
+                }
+            case 0x9000:
+                switch (n) {
+                    case 0x0:
+                        return chip -> chip.op9XY0(x, y);
+                    case 0x1:
+                        return chip -> chip.op9XY1(x, y);
+                    case 0x2:
+                        return chip -> chip.op9XY2(x, y);
+                    case 0x3:
+                        return chip -> chip.op9XY3(x, y);
+                    default:
+                        return UNSUPPORTED;
+                }
+            case 0xA000:
+                return chip -> chip.opANNN(nnn);
+            case 0xB000:
+                return chip -> chip.opBNNN(nnn);
+            case 0xC000:
+                return chip -> chip.opCXNN(x, nn);
+            case 0xD000:
+                return chip -> chip.opDXYN(x, y, n);
+            case 0xE000:
+                switch (nn) {
+                    case 0x9E:
+                        return chip -> chip.opEX9E(x);
+                    case 0xA1:
+                        return chip -> chip.opEXA1(x);
+                    default:
+                        return UNSUPPORTED;
+                }
+            case 0xF000:
+                switch (nn) {
+                    case 0x07:
+                        return chip -> chip.opFX07(x);
+                    case 0x0A:
+                        return chip -> chip.opFX0A(x);
+                    case 0x15:
+                        return chip -> chip.opFX15(x);
+                    case 0x18:
+                        return chip -> chip.opFX18(x);
+                    case 0x1E:
+                        return chip -> chip.opFX1E(x);
+                    case 0x29:
+                        return chip -> chip.opFX29(x);
+                    case 0x33:
+                        return chip -> chip.opFX33(x);
+                    case 0x55:
+                        return chip -> chip.opFX55(x);
+                    case 0x65:
+                        return chip -> chip.opFX65(x);
+                    case 0x75:
+                        return chip -> chip.opFX75(x);
+                    case 0x85:
+                        return chip -> chip.opFX85(x);
+                    case 0x94:
+                        return chip -> chip.opFX94(x);
+                    default:
+                        return UNSUPPORTED;
+                }
+            default:
+                return UNSUPPORTED;
+        }
+    }
+
+    private OpcodeTable() {
+    }
+}
@@ -0,0 +1,318 @@
+package chip;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts where a Chip spends its instructions: per pc, per opcode class (the
+ * first nibble) and per call stack, plus the calls and returns of every
+ * subroutine.
+ *
+ * In exact mode every instruction is counted. In sampling mode the Chip runs
+ * at full speed, with any engine, and one instruction every sampleInterval is
+ * counted: the counts are then proportional to the time spent, calls and
+ * returns are not counted. The call stack of a sample is read from the Chip's
+ * own stack, so the profiler can be attached at any time.
+ *
+ * Counting happens on the emulation thread; read the results when it is not
+ * running, or accept a slightly inconsistent snapshot.
+ */
+public class Profiler {
+
+    /**
+     * A call stack: the subroutine entered by 2NNN, with the instructions
+     * counted while it was the innermost one. The root is the program itself.
+     */
+    private static final class Frame {
+        final int target;
+        final Frame parent;
+        final int depth;
+        long self;
+        Frame[] children = new Frame[0];
+
+        Frame(int target, Frame parent) {
+            this.target = target;
+            this.parent = parent;
+            this.depth = parent == null ? 0 : parent.depth + 1;
+        }
+
+        Frame child(int target) {
+            for (Frame child : children) {
+                if (child.target == target) {
+                    return child;
+                }
+            }
+            Frame child = new Frame(target, this);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            return child;
+        }
+    }
+
+    private final int sampleInterval;
+
+    private final long[] pcCounts = new long[4096];
+    private final long[] classCounts = new long[16];
+    private final long[] calls = new long[4096];
+    private final long[] returns = new long[4096];
+    private long total;
+
+    private Frame root = new Frame(-1, null);
+    private Frame current;
+    //Istruzioni che mancano al prossimo campione
+    private int countdown;
+
+    /**
+     * A profiler that counts every instruction
+     */
+    public Profiler() {
+        this(0);
+    }
+
+    /**
+     * @param sampleInterval instructions between two samples, 0 to count every instruction
+     */
+    public Profiler(int sampleInterval) {
+        if (sampleInterval < 0) {
+            throw new IllegalArgumentException("Invalid sample interval: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        countdown = sampleInterval;
+    }
+
+    public boolean isSampling() {
+        return sampleInterval > 0;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Executes up to maxInstructions instructions, counting them
+     *
+     * @return the instructions executed, fewer only if the emulation stopped
+     */
+    int run(Chip chip, int maxInstructions) {
+        if (sampleInterval > 0) {
+            return runSampled(chip, maxInstructions);
+        }
+
+        Frame frame = current;
+        if (frame == null || frame.depth != chip.getStackPointer()) {
+            frame = stackOf(chip);
+        }
+        int executed = 0;
+        while (executed < maxInstructions && !chip.isEmulationStopped()) {
+            //Riletta ogni volta: una scrittura può rendere privata la memoria condivisa
+            byte[] memory = chip.peekMemory();
+            int pc = chip.getPc();
+            int high = memory[pc] & 0xFF;
+            pcCounts[pc]++;
+            classCounts[high >> 4]++;
+            frame.self++;
+
+            chip.run();
+            executed++;
+
+            //Solo chiamate e ritorni toccano lo stack
+            if ((high & 0xF0) == 0x20) {
+                int target = chip.getPc();
+                calls[target]++;
+                frame = frame.child(target);
+            } else if (high == 0x00 && (chip.peekMemory()[pc + 1] & 0xFF) == 0xEE) {
+                if (frame.parent != null) {
+                    returns[frame.target]++;
+                    frame = frame.parent;
+                }
+            } else {
+                continue;
+            }
+            //Stack manipolato in altro modo (reset, caricamento di uno stato):
+            //si ricostruisce da quello del Chip
+            if (frame.depth != chip.getStackPointer()) {
+                frame = stackOf(chip);
+            }
+        }
+        current = frame;
+        total += executed;
+        return executed;
+    }
+
+    private int runSampled(Chip chip, int maxInstructions) {
+        int executed = 0;
+        while (executed < maxInstructions && !chip.isEmulationStopped()) {
+            int slice = Math.min(countdown, maxInstructions - executed);
+            int done = chip.runEngine(slice);
+            executed += done;
+            countdown -= done;
+            if (countdown == 0) {
+                countdown = sampleInterval;
+                if (!chip.isEmulationStopped()) {
+                    int pc = chip.getPc();
+                    pcCounts[pc]++;
+                    classCounts[chip.peek(pc) >> 4]++;
+                    stackOf(chip).self++;
+                }
+            }
+        }
+        total += executed;
+        return executed;
+    }
+
+    //Il frame corrispondente allo stack del Chip: ogni indirizzo di ritorno
+    //punta al 2NNN che ha fatto la chiamata, da cui si legge NNN
+    private Frame stackOf(Chip chip) {
+        char[] stack = chip.getStack();
+        Frame frame = root;
+        for (int i = 0; i < chip.getStackPointer(); i++) {
+            int call = stack[i];
+            frame = frame.child(((chip.peek(call) & 0x0F) << 8) | chip.peek(call + 1));
+        }
+        return frame;
+    }
+
+    /**
+     * @return the instructions executed under the profiler, counted or not
+     */
+    public long getInstructions() {
+        return total;
+    }
+
+    /**
+     * @return the instructions (or samples) counted at the given address
+     */
+    public long getCount(int pc) {
+        return pcCounts[pc & 0xFFF];
+    }
+
+    /**
+     * @return the instructions (or samples) counted for the opcodes nXXX
+     */
+    public long getClassCount(int opcodeClass) {
+        return classCounts[opcodeClass & 0xF];
+    }
+
+    /**
+     * @return the 2NNN executed with the given target, 0 when sampling
+     */
+    public long getCalls(int target) {
+        return calls[target & 0xFFF];
+    }
+
+    /**
+     * @return the 00EE executed returning from the given subroutine, 0 when sampling
+     */
+    public long getReturns(int target) {
+        return returns[target & 0xFFF];
+    }
+
+    /**
+     * @return every instruction (or sample) counted
+     */
+    public long getCounted() {
+        long counted = 0;
+        for (long count : classCounts) {
+            counted += count;
+        }
+        return counted;
+    }
+
+    public void reset() {
+        Arrays.fill(pcCounts, 0);
+        Arrays.fill(classCounts, 0);
+        Arrays.fill(calls, 0);
+        Arrays.fill(returns, 0);
+        total = 0;
+        root = new Frame(-1, null);
+        current = null;
+        countdown = sampleInterval;
+    }
+
+    /**
+     * Writes the call stacks in the collapsed format of flamegraph.pl and
+     * speedscope: one line per stack, "rom;0x2A0;0x310 count"
+     */
+    public void writeCollapsedStacks(Writer out) throws IOException {
+        writeCollapsed(root, "rom", out);
+        out.flush();
+    }
+
+    private static void writeCollapsed(Frame frame, String path, Writer out) throws IOException {
+        if (frame.self > 0) {
+            out.write(path + " " + frame.self + "\n");
+        }
+        for (Frame child : frame.children) {
+            writeCollapsed(child, path + String.format(";0x%03X", child.target), out);
+        }
+    }
+
+    /**
+     * Prints the opcode classes, the hottest addresses and the subroutines,
+     * each ranked by count
+     *
+     * @param top how many addresses and subroutines to print
+     */
+    public void printReport(PrintStream out, byte[] memory, int top) {
+        long counted = getCounted();
+        String unit = isSampling() ? "samples" : "instructions";
+        out.println(String.format("Profile: %d %s counted of %d executed%s", counted, unit, total,
+                isSampling() ? ", one every " + sampleInterval : ""));
+        if (counted == 0) {
+            return;
+        }
+
+        out.println("Opcode classes");
+        for (int c : ranked(classCounts, 16)) {
+            out.println(String.format("  %XXXX %12d %6.2f%%", c, classCounts[c], 100.0 * classCounts[c] / counted));
+        }
+
+        out.println("Hottest addresses");
+        for (int pc : ranked(pcCounts, top)) {
+            int opcode = ((memory[pc] & 0xFF) << 8) | (memory[(pc + 1) & 0xFFF] & 0xFF);
+            out.println(String.format("  %03X %04X %12d %6.2f%%", pc, opcode, pcCounts[pc], 100.0 * pcCounts[pc] / counted));
+        }
+
+        //Inclusivo: le istruzioni contate dentro la subroutine e in quelle che chiama
+        long[] inclusive = new long[4096];
+        addInclusive(root, inclusive, new boolean[4096]);
+        out.println("Subroutines (calls, returns, inclusive " + unit + ")");
+        for (int target : ranked(inclusive, top)) {
+            out.println(String.format("  %03X %10d %10d %12d %6.2f%%", target, calls[target], returns[target],
+                    inclusive[target], 100.0 * inclusive[target] / counted));
+        }
+    }
+
+    //Ritorna il totale del sottoalbero; una subroutine ricorsiva è contata una volta sola
+    private static long addInclusive(Frame frame, long[] inclusive, boolean[] onStack) {
+        long sum = frame.self;
+        boolean outermost = frame.target >= 0 && !onStack[frame.target];
+        if (outermost) {
+            onStack[frame.target] = true;
+        }
+        for (Frame child : frame.children) {
+            sum += addInclusive(child, inclusive, onStack);
+        }
+        if (outermost) {
+            onStack[frame.target] = false;
+            inclusive[frame.target] += sum;
+        }
+        return sum;
+    }
+
+    //Gli indici con un conteggio, dal più alto, al massimo limit
+    private static List<Integer> ranked(long[] counts, int limit) {
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                indexes.add(i);
+            }
+        }
+        indexes.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        return indexes.subList(0, Math.min(limit, indexes.size()));
+    }
+}
@@ -0,0 +1,21 @@
+package chip;
+
+/**
+ * Random numbers for CXNN. Every Chip owns its own source, so runs with the
+ * same seed are reproducible and parallel instances share nothing.
+ *
+ * The whole state of a source is a long, which is saved with the machine state.
+ */
+public interface RandomSource {
+
+    /**
+     * @return a random number from 0 to 255
+     */
+    int nextByte();
+
+    void setSeed(long seed);
+
+    long getState();
+
+    void setState(long state);
+}
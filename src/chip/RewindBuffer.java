@@ -0,0 +1,312 @@
+package chip;
+
+/**
+ * The last frames of a Chip, to step back one frame at a time.
+ *
+ * Every frame the state is packed into a flat image of {@link #IMAGE_SIZE} bytes
+ * and stored as the XOR with the image of the last keyframe, run length encoded
+ * (runs of equal bytes become a skip). A keyframe is kept in full every
+ * keyframeInterval frames, so restoring any frame is one keyframe copy plus one
+ * delta, whatever its age.
+ *
+ * All the memory is allocated by the constructor: the deltas go in a circular
+ * byte store, and when it is full the oldest frames are dropped, so the buffer
+ * may hold less than the requested frames but never grows.
+ */
+public class RewindBuffer {
+
+    public static final int DEFAULT_FRAMES = 60 * 60;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 60;
+    public static final int DEFAULT_STORE_BYTES = 1536 * 1024;
+
+    //memory, V, flag, stack, I, pc, sp, timer, modi, generatore, righe dello schermo
+    private static final int MEMORY = 0;
+    private static final int REGISTERS = MEMORY + ChipState.MEMORY_SIZE;
+    private static final int FLAGS = REGISTERS + 16;
+    private static final int STACK = FLAGS + 8;
+    private static final int SCALARS = STACK + 16 * 2;
+    private static final int RANDOM = SCALARS + 10;
+    private static final int DISPLAY = RANDOM + 8;
+    public static final int IMAGE_SIZE = DISPLAY + FrameBuffer.HIRES_HEIGHT * 2 * 8;
+
+    //Ogni run del delta: skip (u16), lunghezza (u16), byte
+    private static final int MAX_DELTA = IMAGE_SIZE * 2 + 4;
+    //Byte uguali di fila che chiudono un run: saltarli costa quanto scriverli
+    private static final int MIN_SKIP = 4;
+
+    private final int capacity;
+    private final int keyframeInterval;
+
+    //Frame più vecchio = serial - count + 1
+    private final int[] deltaOffset;
+    private final int[] deltaLength;
+    private final byte[][] keyframes;
+    private final byte[] store;
+    private int storePosition;
+
+    private long serial = -1;
+    private int count;
+
+    private final ChipState state = new ChipState();
+    private final byte[] image = new byte[IMAGE_SIZE];
+    private final byte[] delta = new byte[MAX_DELTA];
+
+    public RewindBuffer() {
+        this(DEFAULT_FRAMES, DEFAULT_KEYFRAME_INTERVAL, DEFAULT_STORE_BYTES);
+    }
+
+    /**
+     * @param frames           maximum number of frames kept
+     * @param keyframeInterval frames between two full images
+     * @param storeBytes       size of the store for the deltas
+     */
+    public RewindBuffer(int frames, int keyframeInterval, int storeBytes) {
+        if (frames < 1 || keyframeInterval < 1 || storeBytes < MAX_DELTA) {
+            throw new IllegalArgumentException("Rewind buffer too small");
+        }
+        this.capacity = frames;
+        this.keyframeInterval = keyframeInterval;
+        deltaOffset = new int[frames];
+        deltaLength = new int[frames];
+        //Il keyframe del frame più vecchio resta vivo finché non è sovrascritto
+        keyframes = new byte[frames / keyframeInterval + 2][IMAGE_SIZE];
+        store = new byte[storeBytes];
+    }
+
+    /**
+     * Records the current state of chip as the newest frame
+     */
+    public void push(Chip chip) {
+        chip.saveState(state);
+        pack(state, image);
+
+        serial++;
+        byte[] keyframe = keyframe(serial);
+        if (serial % keyframeInterval == 0) {
+            System.arraycopy(image, 0, keyframe, 0, IMAGE_SIZE);
+        }
+        int length = encode(image, keyframe, delta);
+        //Anche un delta vuoto (un keyframe) occupa un byte, così l'ordine
+        //dei frame nello store non è mai ambiguo
+        int size = Math.max(length, 1);
+
+        if (count == capacity) {
+            count--;
+        }
+        if (storePosition + size > store.length) {
+            //I frame rimasti in fondo allo store sono i più vecchi: se restassero,
+            //quelli all'inizio, più recenti, non potrebbero essere liberati
+            while (count > 0 && deltaOffset[slot(serial - count)] >= storePosition) {
+                count--;
+            }
+            storePosition = 0;
+        }
+        //Libera lo spazio occupato dai frame più vecchi, che ora stanno
+        //dalla posizione di scrittura in avanti
+        while (count > 0) {
+            int oldest = slot(serial - count);
+            int offset = deltaOffset[oldest];
+            if (offset < storePosition + size && offset + Math.max(deltaLength[oldest], 1) > storePosition) {
+                count--;
+            } else {
+                break;
+            }
+        }
+
+        System.arraycopy(delta, 0, store, storePosition, length);
+        int slot = slot(serial);
+        deltaOffset[slot] = storePosition;
+        deltaLength[slot] = length;
+        storePosition += size;
+        count++;
+    }
+
+    /**
+     * Drops the newest frame and restores chip to the one before it.
+     *
+     * @return false if there is no older frame, chip is left unchanged
+     */
+    public boolean stepBack(Chip chip) {
+        if (count < 2) {
+            return false;
+        }
+        int slot = slot(serial);
+        storePosition = deltaOffset[slot];
+        serial--;
+        count--;
+        restore(chip);
+        return true;
+    }
+
+    /**
+     * Restores chip to the newest frame
+     */
+    public boolean restore(Chip chip) {
+        if (count == 0) {
+            return false;
+        }
+        int slot = slot(serial);
+        System.arraycopy(keyframe(serial), 0, image, 0, IMAGE_SIZE);
+        decode(store, deltaOffset[slot], deltaLength[slot], image);
+        unpack(image, state);
+        chip.loadState(state);
+        return true;
+    }
+
+    public void clear() {
+        count = 0;
+        serial = -1;
+        storePosition = 0;
+    }
+
+    /**
+     * @return number of frames that can be restored
+     */
+    public int getFrames() {
+        return count;
+    }
+
+    /**
+     * @return bytes used by the deltas of the stored frames
+     */
+    public long getDeltaBytes() {
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += deltaLength[slot(serial - i)];
+        }
+        return bytes;
+    }
+
+    /**
+     * @return about the bytes allocated by the buffer, they don't change after the constructor
+     */
+    public long getAllocatedBytes() {
+        return (long) keyframes.length * IMAGE_SIZE + store.length
+                + (deltaOffset.length + deltaLength.length) * 4L
+                + IMAGE_SIZE + MAX_DELTA + ChipState.MEMORY_SIZE + FrameBuffer.HIRES_HEIGHT * 2 * 8;
+    }
+
+    private int slot(long frame) {
+        return (int) (frame % capacity);
+    }
+
+    private byte[] keyframe(long frame) {
+        return keyframes[(int) ((frame / keyframeInterval) % keyframes.length)];
+    }
+
+    /**
+     * Writes image XOR keyframe as (skip, length, bytes) runs
+     *
+     * @return the length of the delta
+     */
+    static int encode(byte[] image, byte[] keyframe, byte[] delta) {
+        int out = 0;
+        int i = 0;
+        while (i < IMAGE_SIZE) {
+            int start = i;
+            while (i < IMAGE_SIZE && image[i] == keyframe[i]) {
+                i++;
+            }
+            if (i == IMAGE_SIZE) {
+                break;
+            }
+            int skip = i - start;
+
+            //Il run finisce a MIN_SKIP byte uguali di fila o alla fine
+            int literal = i;
+            int same = 0;
+            while (i < IMAGE_SIZE && same < MIN_SKIP) {
+                same = image[i] == keyframe[i] ? same + 1 : 0;
+                i++;
+            }
+            int end = i - same;
+
+            delta[out++] = (byte) (skip >> 8);
+            delta[out++] = (byte) skip;
+            delta[out++] = (byte) ((end - literal) >> 8);
+            delta[out++] = (byte) (end - literal);
+            for (int a = literal; a < end; a++) {
+                delta[out++] = (byte) (image[a] ^ keyframe[a]);
+            }
+            i = end;
+        }
+        return out;
+    }
+
+    /**
+     * XORs into image the delta written by {@link #encode}
+     */
+    static void decode(byte[] store, int offset, int length, byte[] image) {
+        int in = offset;
+        int end = offset + length;
+        int position = 0;
+        while (in < end) {
+            position += ((store[in] & 0xFF) << 8) | (store[in + 1] & 0xFF);
+            int literal = ((store[in + 2] & 0xFF) << 8) | (store[in + 3] & 0xFF);
+            in += 4;
+            for (int i = 0; i < literal; i++) {
+                image[position++] ^= store[in++];
+            }
+        }
+    }
+
+    static void pack(ChipState state, byte[] image) {
+        System.arraycopy(state.memory, 0, image, MEMORY, ChipState.MEMORY_SIZE);
+        System.arraycopy(state.V, 0, image, REGISTERS, 16);
+        System.arraycopy(state.flag, 0, image, FLAGS, 8);
+        for (int i = 0; i < 16; i++) {
+            image[STACK + i * 2] = (byte) (state.stack[i] >> 8);
+            image[STACK + i * 2 + 1] = (byte) state.stack[i];
+        }
+        image[SCALARS] = (byte) (state.I >> 8);
+        image[SCALARS + 1] = (byte) state.I;
+        image[SCALARS + 2] = (byte) (state.pc >> 8);
+        image[SCALARS + 3] = (byte) state.pc;
+        image[SCALARS + 4] = (byte) state.stackPointer;
+        image[SCALARS + 5] = (byte) state.delayTimer;
+        image[SCALARS + 6] = (byte) state.soundTimer;
+        image[SCALARS + 7] = (byte) (state.superMode ? 1 : 0);
+        image[SCALARS + 8] = (byte) (state.stopEmulation ? 1 : 0);
+        image[SCALARS + 9] = (byte) (state.hires ? 1 : 0);
+        for (int b = 0; b < 8; b++) {
+            image[RANDOM + b] = (byte) (state.randomState >>> (56 - b * 8));
+        }
+        for (int i = 0; i < state.displayRows.length; i++) {
+            long row = state.displayRows[i];
+            int p = DISPLAY + i * 8;
+            for (int b = 0; b < 8; b++) {
+                image[p + b] = (byte) (row >>> (56 - b * 8));
+            }
+        }
+    }
+
+    static void unpack(byte[] image, ChipState state) {
+        System.arraycopy(image, MEMORY, state.memory, 0, ChipState.MEMORY_SIZE);
+        System.arraycopy(image, REGISTERS, state.V, 0, 16);
+        System.arraycopy(image, FLAGS, state.flag, 0, 8);
+        for (int i = 0; i < 16; i++) {
+            state.stack[i] = (char) (((image[STACK + i * 2] & 0xFF) << 8) | (image[STACK + i * 2 + 1] & 0xFF));
+        }
+        state.I = ((image[SCALARS] & 0xFF) << 8) | (image[SCALARS + 1] & 0xFF);
+        state.pc = ((image[SCALARS + 2] & 0xFF) << 8) | (image[SCALARS + 3] & 0xFF);
+        state.stackPointer = image[SCALARS + 4] & 0xFF;
+        state.delayTimer = image[SCALARS + 5] & 0xFF;
+        state.soundTimer = image[SCALARS + 6] & 0xFF;
+        state.superMode = image[SCALARS + 7] != 0;
+        state.stopEmulation = image[SCALARS + 8] != 0;
+        state.hires = image[SCALARS + 9] != 0;
+        long random = 0;
+        for (int b = 0; b < 8; b++) {
+            random = (random << 8) | (image[RANDOM + b] & 0xFF);
+        }
+        state.randomState = random;
+        for (int i = 0; i < state.displayRows.length; i++) {
+            int p = DISPLAY + i * 8;
+            long row = 0;
+            for (int b = 0; b < 8; b++) {
+                row = (row << 8) | (image[p + b] & 0xFF);
+            }
+            state.displayRows[i] = row;
+        }
+    }
+}
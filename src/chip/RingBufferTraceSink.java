@@ -0,0 +1,107 @@
+package chip;
+
+import java.io.PrintStream;
+
+/**
+ * Keeps the last N trace records in memory.
+ * Recording an opcode is a single store in a preallocated array, so this sink
+ * can be left enabled while playing and dumped when something goes wrong.
+ */
+public class RingBufferTraceSink implements TraceSink {
+
+    //pc nei 16 bit alti, opcode nei 16 bit bassi
+    private final int[] records;
+    //Allocato solo al primo messaggio, così con TraceLevel.OPCODE
+    //registrare un opcode è una sola scrittura
+    private String[] messages;
+    private final int mask;
+    private long count;
+
+    /**
+     * @param capacity number of records kept, rounded up to a power of two
+     */
+    public RingBufferTraceSink(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        records = new int[size];
+        mask = size - 1;
+    }
+
+    @Override
+    public void opcode(int pc, int opcode) {
+        int index = (int) (count++ & mask);
+        records[index] = (pc << 16) | (opcode & 0xFFFF);
+        if (messages != null) {
+            messages[index] = null;
+        }
+    }
+
+    @Override
+    public void message(String message) {
+        if (count > 0) {
+            if (messages == null) {
+                messages = new String[records.length];
+            }
+            messages[(int) ((count - 1) & mask)] = message;
+        }
+    }
+
+    public int capacity() {
+        return records.length;
+    }
+
+    /**
+     * Number of records currently stored
+     */
+    public int size() {
+        return (int) Math.min(count, records.length);
+    }
+
+    /**
+     * Total number of opcodes recorded since creation (or the last clear)
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param i 0 is the oldest stored record
+     */
+    public int getPc(int i) {
+        return records[indexOf(i)] >>> 16;
+    }
+
+    public int getOpcode(int i) {
+        return records[indexOf(i)] & 0xFFFF;
+    }
+
+    public String getMessage(int i) {
+        int index = indexOf(i);
+        return messages == null ? null : messages[index];
+    }
+
+    public void clear() {
+        count = 0;
+        messages = null;
+    }
+
+    public void dump(PrintStream out) {
+        for (int i = 0; i < size(); i++) {
+            String message = getMessage(i);
+            out.println(String.format("%03X  %04X%s", getPc(i), getOpcode(i),
+                    message == null ? "" : "  " + message));
+        }
+    }
+
+    private int indexOf(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Record " + i + " of " + size());
+        }
+        return (int) ((count - size() + i) & mask);
+    }
+}
@@ -0,0 +1,155 @@
+package chip;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A program ready to be loaded. A Rom never changes after it is created, so the
+ * same one can be loaded into any number of Chips, each load being a single
+ * array copy, or shared by all of them with {@link Chip#shareProgram(Rom)}.
+ *
+ * Roms are cached by the SHA-256 of their content: loading the same file again,
+ * or another file with the same bytes, returns the same instance. The cache
+ * holds them through soft references, so the garbage collector can free the
+ * ones nobody uses when memory runs short.
+ */
+public final class Rom {
+
+    //I programmi iniziano a 0x200 e possono arrivare fino alla fine della memoria
+    public static final int START = 0x200;
+    public static final int MAX_SIZE = 4096 - START;
+
+    private static final ConcurrentHashMap<String, CachedRom> CACHE = new ConcurrentHashMap<>();
+    //Rom liberate dal GC: la loro voce si toglie alla prossima chiamata a of()
+    private static final ReferenceQueue<Rom> CLEARED = new ReferenceQueue<>();
+
+    private static final class CachedRom extends SoftReference<Rom> {
+        final String hash;
+
+        CachedRom(Rom rom) {
+            super(rom, CLEARED);
+            hash = rom.hash;
+        }
+    }
+
+    private final byte[] program;
+    //La memoria intera dopo init() e loadProgram(): fontset e programma.
+    //Condivisa dai Chip, nessuno la scrive
+    private final byte[] image;
+    private final String hash;
+
+    private Rom(byte[] data, String hash) {
+        program = data.clone();
+        image = new byte[4096];
+        Chip.writeFontset(image);
+        System.arraycopy(program, 0, image, START, program.length);
+        this.hash = hash;
+    }
+
+    /**
+     * Reads a ROM file with a single bulk read
+     *
+     * @throws IOException if the file can't be read or doesn't fit in memory
+     */
+    public static Rom load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_SIZE) {
+                throw new IOException(file + ": ROM too large, " + size + " bytes, at most " + MAX_SIZE);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException(file + ": file truncated while reading");
+                }
+            }
+            return of(buffer.array());
+        }
+    }
+
+    /**
+     * @return the cached Rom with the given content
+     * @throws IOException if the program doesn't fit in memory
+     */
+    public static Rom of(byte[] data) throws IOException {
+        if (data.length > MAX_SIZE) {
+            throw new IOException("ROM too large, " + data.length + " bytes, at most " + MAX_SIZE);
+        }
+        String hash = sha256(data);
+        removeCleared();
+        CachedRom cached = CACHE.get(hash);
+        Rom rom = cached != null ? cached.get() : null;
+        if (rom == null) {
+            Rom created = new Rom(data, hash);
+            //Se un altro thread l'ha appena messa in cache, si usa la sua
+            cached = CACHE.merge(hash, new CachedRom(created), (old, added) -> old.get() != null ? old : added);
+            rom = cached.get();
+            if (rom == null) {
+                rom = created;
+            }
+        }
+        return rom;
+    }
+
+    private static void removeCleared() {
+        Reference<? extends Rom> cleared;
+        while ((cleared = CLEARED.poll()) != null) {
+            CACHE.remove(((CachedRom) cleared).hash, cleared);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Ogni JVM deve avere SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies the program at {@link #START}, the rest of memory is left as it is
+     */
+    void copyTo(byte[] memory) {
+        System.arraycopy(program, 0, memory, START, program.length);
+    }
+
+    /**
+     * The whole memory with the program loaded, it must never be written
+     */
+    byte[] getImage() {
+        return image;
+    }
+
+    public int getLength() {
+        return program.length;
+    }
+
+    /**
+     * @return the SHA-256 of the content, in hex
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Forgets all the cached Roms, the ones already loaded stay valid
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+}
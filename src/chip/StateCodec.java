@@ -0,0 +1,197 @@
+package chip;
+
+import java.io.*;
+
+/**
+ * Binary format of a {@link ChipState}.
+ *
+ * Layout (big endian):
+ * - magic "C8ST", version (u8)
+ * - V0-VF, flag registers, stack (u16 each), I (u16), pc (u16), stack pointer,
+ *   delay timer, sound timer (u8), superMode, stopEmulation (u8)
+ * - random generator state (u64), since version 2
+ * - display: hires (u8), a 64 bit mask of the non empty rows, then the words of those rows
+ * - memory in 16 pages of 256 bytes: an int with 2 bits per page
+ *   (PAGE_ZERO, PAGE_BASE, PAGE_DATA), then the bytes of the PAGE_DATA pages
+ *
+ * A state can be written to a stream against a base state kept in memory, usually
+ * the previous snapshot: pages equal to the base are left out, and the same base
+ * must be given to read it. State files are always written without a base, so
+ * each one loads on its own; they only leave out the zeroed pages.
+ * Reading rejects a pc, stack pointer or return address outside the memory;
+ * I is a 16 bit register and can point past the memory, any value is valid.
+ */
+public final class StateCodec {
+
+    public static final int MAGIC = 0x43385354;
+    public static final int VERSION = 2;
+
+    static final int PAGE_SIZE = 256;
+    static final int PAGES = ChipState.MEMORY_SIZE / PAGE_SIZE;
+
+    static final int PAGE_ZERO = 0;
+    static final int PAGE_BASE = 1;
+    static final int PAGE_DATA = 2;
+
+    /**
+     * @param base the state the reader will have, or null
+     */
+    public static void write(ChipState state, ChipState base, DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+
+        out.write(state.V);
+        out.write(state.flag);
+        for (char s : state.stack) {
+            out.writeShort(s);
+        }
+        out.writeShort(state.I);
+        out.writeShort(state.pc);
+        out.writeByte(state.stackPointer);
+        out.writeByte(state.delayTimer);
+        out.writeByte(state.soundTimer);
+        out.writeByte(state.superMode ? 1 : 0);
+        out.writeByte(state.stopEmulation ? 1 : 0);
+        out.writeLong(state.randomState);
+
+        out.writeByte(state.hires ? 1 : 0);
+        int words = state.hires ? 2 : 1;
+        int height = state.hires ? FrameBuffer.HIRES_HEIGHT : FrameBuffer.LORES_HEIGHT;
+        long rowMask = 0;
+        for (int y = 0; y < height; y++) {
+            for (int w = 0; w < words; w++) {
+                if (state.displayRows[y * words + w] != 0) {
+                    rowMask |= 1L << y;
+                }
+            }
+        }
+        out.writeLong(rowMask);
+        for (int y = 0; y < height; y++) {
+            if ((rowMask & (1L << y)) != 0) {
+                for (int w = 0; w < words; w++) {
+                    out.writeLong(state.displayRows[y * words + w]);
+                }
+            }
+        }
+
+        int pageMap = 0;
+        for (int page = 0; page < PAGES; page++) {
+            pageMap |= pageType(state, base, page) << (page * 2);
+        }
+        out.writeInt(pageMap);
+        for (int page = 0; page < PAGES; page++) {
+            if (((pageMap >> (page * 2)) & 3) == PAGE_DATA) {
+                out.write(state.memory, page * PAGE_SIZE, PAGE_SIZE);
+            }
+        }
+    }
+
+    /**
+     * @param base the state given as base to write, or null
+     * @throws IOException if the data is not a state or holds invalid values
+     */
+    public static void read(DataInput in, ChipState base, ChipState state) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a Chip8 state");
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported state version " + version);
+        }
+
+        in.readFully(state.V);
+        in.readFully(state.flag);
+        for (int i = 0; i < state.stack.length; i++) {
+            state.stack[i] = (char) in.readUnsignedShort();
+        }
+        state.I = in.readUnsignedShort();
+        state.pc = in.readUnsignedShort();
+        state.stackPointer = in.readUnsignedByte();
+        state.delayTimer = in.readUnsignedByte();
+        state.soundTimer = in.readUnsignedByte();
+        state.superMode = in.readUnsignedByte() != 0;
+        state.stopEmulation = in.readUnsignedByte() != 0;
+        //Gli stati della versione 1 non hanno il generatore: ne riparte uno fisso
+        state.randomState = version >= 2 ? in.readLong() : 0;
+        //Valori che il Chip non può avere: meglio fallire qui che nell'interprete.
+        //I invece può superare 0xFFF (FX1E, FX55/FX65 senza SCHIP-8), non si controlla
+        if (state.pc > ChipState.MEMORY_SIZE - 2) {
+            throw new IOException(String.format("Invalid pc %04X", state.pc));
+        }
+        if (state.stackPointer > state.stack.length) {
+            throw new IOException("Invalid stack pointer " + state.stackPointer);
+        }
+        for (int i = 0; i < state.stackPointer; i++) {
+            if (state.stack[i] > ChipState.MEMORY_SIZE - 2) {
+                throw new IOException(String.format("Invalid return address %04X", (int) state.stack[i]));
+            }
+        }
+
+        state.hires = in.readUnsignedByte() != 0;
+        int words = state.hires ? 2 : 1;
+        int height = state.hires ? FrameBuffer.HIRES_HEIGHT : FrameBuffer.LORES_HEIGHT;
+        long rowMask = in.readLong();
+        for (int y = 0; y < height; y++) {
+            boolean present = (rowMask & (1L << y)) != 0;
+            for (int w = 0; w < words; w++) {
+                state.displayRows[y * words + w] = present ? in.readLong() : 0;
+            }
+        }
+
+        int pageMap = in.readInt();
+        for (int page = 0; page < PAGES; page++) {
+            int start = page * PAGE_SIZE;
+            switch ((pageMap >> (page * 2)) & 3) {
+                case PAGE_ZERO:
+                    for (int a = start; a < start + PAGE_SIZE; a++) {
+                        state.memory[a] = 0;
+                    }
+                    break;
+                case PAGE_BASE:
+                    if (base == null) {
+                        throw new IOException("State was saved against a base state");
+                    }
+                    System.arraycopy(base.memory, start, state.memory, start, PAGE_SIZE);
+                    break;
+                case PAGE_DATA:
+                    in.readFully(state.memory, start, PAGE_SIZE);
+                    break;
+                default:
+                    throw new IOException("Invalid page type for page " + page);
+            }
+        }
+    }
+
+    /**
+     * Writes a self-contained state file, without a base state
+     */
+    public static void write(ChipState state, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            write(state, null, out);
+        }
+    }
+
+    public static void read(File file, ChipState state) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            read(in, null, state);
+        }
+    }
+
+    private static int pageType(ChipState state, ChipState base, int page) {
+        int start = page * PAGE_SIZE;
+        boolean zero = true;
+        boolean sameAsBase = base != null;
+        for (int a = start; a < start + PAGE_SIZE; a++) {
+            byte value = state.memory[a];
+            zero &= value == 0;
+            sameAsBase &= base != null && value == base.memory[a];
+        }
+        if (zero) {
+            return PAGE_ZERO;
+        }
+        return sameAsBase ? PAGE_BASE : PAGE_DATA;
+    }
+
+    private StateCodec() {
+    }
+}
@@ -0,0 +1,19 @@
+package chip;
+
+public enum TraceLevel {
+
+    /**
+     * No tracing at all
+     */
+    OFF,
+
+    /**
+     * Only the program counter and the opcode of every instruction
+     */
+    OPCODE,
+
+    /**
+     * Opcodes plus a readable description of what every instruction did
+     */
+    FULL
+}
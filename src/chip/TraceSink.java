@@ -0,0 +1,21 @@
+package chip;
+
+/**
+ * Receives the trace records produced by {@link Chip#run()}.
+ * Sinks are called from the emulation thread only.
+ */
+public interface TraceSink {
+
+    /**
+     * Called before an instruction is executed
+     */
+    void opcode(int pc, int opcode);
+
+    /**
+     * Called after an instruction is executed, only with {@link TraceLevel#FULL}
+     */
+    void message(String message);
+
+    default void flush() {
+    }
+}
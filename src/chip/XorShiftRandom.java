@@ -0,0 +1,48 @@
+package chip;
+
+/**
+ * xorshift64* generator: one long of state, no allocation, not thread safe.
+ */
+public class XorShiftRandom implements RandomSource {
+
+    //Lo stato non può essere 0, se no il generatore resta fermo
+    private static final long ZERO_STATE = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    public XorShiftRandom(long seed) {
+        setSeed(seed);
+    }
+
+    @Override
+    public int nextByte() {
+        long x = state;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        state = x;
+        //Gli 8 bit più alti del prodotto sono i migliori
+        return (int) ((x * 0x2545F4914F6CDD1DL) >>> 56);
+    }
+
+    /**
+     * Mixes the seed with splitmix64, so close seeds give unrelated sequences
+     */
+    @Override
+    public void setSeed(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        setState(z ^ (z >>> 31));
+    }
+
+    @Override
+    public long getState() {
+        return state;
+    }
+
+    @Override
+    public void setState(long state) {
+        this.state = state != 0 ? state : ZERO_STATE;
+    }
+}
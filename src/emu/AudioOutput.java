@@ -0,0 +1,47 @@
+package emu;
+
+import java.awt.GraphicsEnvironment;
+import java.io.File;
+
+/**
+ * Sound of the Chip, driven once per frame with the value of the sound timer.
+ *
+ * All the resources (lines, samples, buffers) are taken when the backend is
+ * opened: a beep costs no thread, no I/O and no allocation.
+ */
+public interface AudioOutput {
+
+    /**
+     * Called at every vblank, from the emulation thread
+     *
+     * @param soundTimer the sound timer after the frame, 0 for silence
+     */
+    void vblank(int soundTimer);
+
+    /**
+     * Releases the audio line
+     */
+    void close();
+
+    /**
+     * Opens a backend by name: "clip" plays beep.wav once per beep, "square"
+     * synthesizes a tone for as long as the sound timer runs, "none" is silent.
+     * When the backend can't be opened, or there is no display, the silent one
+     * is returned.
+     */
+    static AudioOutput open(String backend) {
+        if (GraphicsEnvironment.isHeadless() || backend.equalsIgnoreCase("none")) {
+            return new NullAudio();
+        }
+        try {
+            if (backend.equalsIgnoreCase("square")) {
+                return new SquareWaveAudio();
+            }
+            return new ClipAudio(new File("./beep.wav"));
+        } catch (Exception e) {
+            //Nessuna linea audio disponibile: si continua senza suono
+            System.err.println("Audio disabled: " + e);
+            return new NullAudio();
+        }
+    }
+}
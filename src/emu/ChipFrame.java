@@ -6,22 +6,34 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ChipFrame extends JFrame implements KeyListener {
 
     private ChipPanel panel;
-    private int[] keyBuffer;
+    private final FramePipeline frames = new FramePipeline();
+    //Scritta solo dall'EDT, letta dal thread dell'emulazione una volta per frame
+    private volatile int keyMask;
     private int[] keyIdToKey;
     private File gameFile;
-    private boolean audioEnabled;
-    private boolean emulationPaused;
-    private boolean resetGame;
+    private volatile boolean audioEnabled;
+    //Scritti dall'EDT, che poi sveglia il thread dell'emulazione con main.wakeUp()
+    private volatile boolean emulationPaused;
+    private volatile boolean resetGame;
+    //Scritti dall'EDT, presi dal thread dell'emulazione con getAndSet:
+    //una richiesta fatta mentre l'altra viene presa non si perde
+    private final AtomicReference<File> stateToSave = new AtomicReference<>();
+    private final AtomicReference<File> stateToLoad = new AtomicReference<>();
+    private volatile boolean rewinding;
+    private JFrame debuggerFrame;
+    private final Main main;
 
 
     private int screenWidth = 640;
     private int screenHeight = 343;
 
     public ChipFrame(Chip chip, Main main) {
+        this.main = main;
         setPreferredSize(new Dimension(620, 320));
         pack();
         setPreferredSize(new Dimension(screenWidth + getInsets().left + getInsets().right,
@@ -29,7 +41,7 @@ public class ChipFrame extends JFrame implements KeyListener {
 
         centerWindow();
 
-        panel = new ChipPanel(chip);
+        panel = new ChipPanel(frames);
         setLayout(new BorderLayout());
         add(panel, BorderLayout.CENTER);
 
@@ -44,6 +56,8 @@ public class ChipFrame extends JFrame implements KeyListener {
             - Audio
             - Resume/Pause
             - Reset
+            - Debugger
+            - Save/Load state
             - Exit
          */
         JMenu menu = new JMenu("Menu");
@@ -63,6 +77,7 @@ public class ChipFrame extends JFrame implements KeyListener {
                         main.start();
                     }
                     emulationPaused = false;
+                    main.wakeUp();
                 }
         );
         openFileMenuItem.setMnemonic(KeyEvent.VK_O);
@@ -95,7 +110,10 @@ public class ChipFrame extends JFrame implements KeyListener {
         JMenuItem pauseMenuItem = new JMenuItem("Pause/Resume",
                 KeyEvent.VK_P);
         pauseMenuItem.addActionListener(
-                (event) -> emulationPaused = !emulationPaused
+                (event) -> {
+                    emulationPaused = !emulationPaused;
+                    main.wakeUp();
+                }
         );
         pauseMenuItem.setMnemonic(KeyEvent.VK_P);
         pauseMenuItem.setAccelerator(KeyStroke.getKeyStroke(
@@ -106,7 +124,10 @@ public class ChipFrame extends JFrame implements KeyListener {
         JMenuItem resetMenuItem = new JMenuItem("Reset",
                 KeyEvent.VK_T);
         resetMenuItem.addActionListener(
-                (event) -> resetGame = true
+                (event) -> {
+                    resetGame = true;
+                    main.wakeUp();
+                }
         );
         resetMenuItem.setMnemonic(KeyEvent.VK_T);
         resetMenuItem.setAccelerator(KeyStroke.getKeyStroke(
@@ -114,6 +135,45 @@ public class ChipFrame extends JFrame implements KeyListener {
         menu.add(resetMenuItem);
 
 
+        JMenuItem debuggerMenuItem = new JMenuItem("Debugger");
+        debuggerMenuItem.addActionListener(
+                (event) -> showDebugger(chip, main)
+        );
+        debuggerMenuItem.setMnemonic(KeyEvent.VK_D);
+        debuggerMenuItem.setAccelerator(KeyStroke.getKeyStroke(
+                KeyEvent.VK_D, InputEvent.ALT_DOWN_MASK));
+        menu.add(debuggerMenuItem);
+
+
+        menu.addSeparator();
+
+
+        JMenuItem saveStateMenuItem = new JMenuItem("Save state");
+        saveStateMenuItem.addActionListener(
+                (event) -> {
+                    stateToSave.set(chooseStateFile(true));
+                    main.wakeUp();
+                }
+        );
+        saveStateMenuItem.setMnemonic(KeyEvent.VK_S);
+        saveStateMenuItem.setAccelerator(KeyStroke.getKeyStroke(
+                KeyEvent.VK_S, InputEvent.ALT_DOWN_MASK));
+        menu.add(saveStateMenuItem);
+
+
+        JMenuItem loadStateMenuItem = new JMenuItem("Load state");
+        loadStateMenuItem.addActionListener(
+                (event) -> {
+                    stateToLoad.set(chooseStateFile(false));
+                    main.wakeUp();
+                }
+        );
+        loadStateMenuItem.setMnemonic(KeyEvent.VK_L);
+        loadStateMenuItem.setAccelerator(KeyStroke.getKeyStroke(
+                KeyEvent.VK_L, InputEvent.ALT_DOWN_MASK));
+        menu.add(loadStateMenuItem);
+
+
         JMenuItem exitMenuItem = new JMenuItem("Exit",
                 KeyEvent.VK_T);
         exitMenuItem.addActionListener(
@@ -155,6 +215,24 @@ public class ChipFrame extends JFrame implements KeyListener {
         group.add(rbMenuItem);
         scaleMenu.add(rbMenuItem);
 
+        /*
+            CPU speed
+            - instructions per second, the timers always run at 60 Hz
+         */
+        JMenu speedMenu = new JMenu("Speed");
+        menuBar.add(speedMenu);
+
+        ButtonGroup speedGroup = new ButtonGroup();
+        int[] speeds = {500, 700, 1000, 2000, 5000, Scheduler.UNLIMITED};
+        for (int speed : speeds) {
+            JRadioButtonMenuItem speedMenuItem = new JRadioButtonMenuItem(
+                    speed == Scheduler.UNLIMITED ? "Unlimited" : speed + " Hz");
+            speedMenuItem.setSelected(speed == main.getScheduler().getInstructionsPerSecond());
+            speedMenuItem.addActionListener(e -> main.getScheduler().setInstructionsPerSecond(speed));
+            speedGroup.add(speedMenuItem);
+            speedMenu.add(speedMenuItem);
+        }
+
 
         setJMenuBar(menuBar);
 
@@ -165,17 +243,17 @@ public class ChipFrame extends JFrame implements KeyListener {
         addKeyListener(this);
 
         keyIdToKey = new int[256];
-        keyBuffer = new int[16];
         fillKeyIds();
     }
 
     public ChipFrame(Chip chip, String gameTitle) {
+        main = null;
         setPreferredSize(new Dimension(640, 320));
         pack();
         setPreferredSize(new Dimension(640 + getInsets().left + getInsets().right,
                 320 + getInsets().top + getInsets().bottom));
 
-        panel = new ChipPanel(chip);
+        panel = new ChipPanel(frames);
         setLayout(new BorderLayout());
         add(panel, BorderLayout.CENTER);
         setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -185,7 +263,6 @@ public class ChipFrame extends JFrame implements KeyListener {
         addKeyListener(this);
 
         keyIdToKey = new int[256];
-        keyBuffer = new int[16];
         fillKeyIds();
     }
 
@@ -219,26 +296,58 @@ public class ChipFrame extends JFrame implements KeyListener {
         keyIdToKey['V'] = 0xF;
     }
 
+    //Senza Main (finestra di sola visualizzazione) non c'è nessuno da svegliare
+    private void wakeUp() {
+        if (main != null) {
+            main.wakeUp();
+        }
+    }
+
     @Override
     public void keyPressed(KeyEvent e) {
-        if (keyIdToKey[e.getKeyCode()] != -1) {
-            keyBuffer[keyIdToKey[e.getKeyCode()]] = 1;
+        if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            rewinding = true;
         }
+        int key = chipKey(e);
+        if (key != -1) {
+            keyMask |= 1 << key;
+        }
+        wakeUp();
     }
 
     @Override
     public void keyReleased(KeyEvent e) {
-        if (keyIdToKey[e.getKeyCode()] != -1) {
-            keyBuffer[keyIdToKey[e.getKeyCode()]] = 0;
+        if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            rewinding = false;
+        }
+        int key = chipKey(e);
+        if (key != -1) {
+            keyMask &= ~(1 << key);
         }
+        wakeUp();
     }
 
     @Override
     public void keyTyped(KeyEvent e) {
     }
 
-    public int[] getKeyBuffer() {
-        return keyBuffer;
+    private int chipKey(KeyEvent e) {
+        int code = e.getKeyCode();
+        return code >= 0 && code < keyIdToKey.length ? keyIdToKey[code] : -1;
+    }
+
+    /**
+     * @return the keys held down, bit n is CHIP-8 key n
+     */
+    public int getKeyMask() {
+        return keyMask;
+    }
+
+    /**
+     * Where the emulation thread publishes the frames to draw
+     */
+    public FramePipeline getFramePipeline() {
+        return frames;
     }
 
     public File getGameFile() {
@@ -260,6 +369,28 @@ public class ChipFrame extends JFrame implements KeyListener {
         }
     }
 
+    //Una sola finestra del debugger, creata la prima volta che serve
+    private void showDebugger(Chip chip, Main main) {
+        if (debuggerFrame == null) {
+            debuggerFrame = new JFrame("Debugger");
+            debuggerFrame.add(new DebuggerPanel(chip, main.getDebugger(), main::wakeUp));
+            debuggerFrame.pack();
+            debuggerFrame.setLocationRelativeTo(this);
+        }
+        debuggerFrame.setVisible(true);
+    }
+
+    private File chooseStateFile(boolean save) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setCurrentDirectory(new java.io.File("."));
+        int result = save ? fileChooser.showSaveDialog(this) : fileChooser.showOpenDialog(this);
+        if (result == JFileChooser.APPROVE_OPTION) {
+            return fileChooser.getSelectedFile();
+        } else {
+            return null;
+        }
+    }
+
     private void centerWindow() {
         //Center window
         Dimension dimension = Toolkit.getDefaultToolkit().getScreenSize();
@@ -277,6 +408,13 @@ public class ChipFrame extends JFrame implements KeyListener {
         return emulationPaused;
     }
 
+    /**
+     * @return true while Backspace is held down
+     */
+    public boolean isRewinding() {
+        return rewinding;
+    }
+
     public boolean resetGame() {
         return resetGame;
     }
@@ -284,4 +422,18 @@ public class ChipFrame extends JFrame implements KeyListener {
     public void setGameAsReset() {
         resetGame = false;
     }
+
+    /**
+     * @return the file chosen with "Save state", only once, or null
+     */
+    public File takeStateToSave() {
+        return stateToSave.getAndSet(null);
+    }
+
+    /**
+     * @return the file chosen with "Load state", only once, or null
+     */
+    public File takeStateToLoad() {
+        return stateToLoad.getAndSet(null);
+    }
 }
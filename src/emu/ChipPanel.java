@@ -1,39 +1,74 @@
 package emu;
 
-import chip.Chip;
+import chip.FrameBuffer;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 public class ChipPanel extends JPanel {
 
-    private Chip chip;
+    private static final int OFF = 0x000000;
+    private static final int ON = 0xFFFFFF;
+
+    private final FramePipeline frames;
     private int scale;
 
-    public ChipPanel(Chip chip) {
-        this.chip = chip;
+    //Immagine con un int per pixel dello schermo del Chip8:
+    //aggiorniamo solo le parole cambiate e la disegnamo scalata
+    private BufferedImage image;
+    private int[] pixels;
+    //Le righe disegnate nell'immagine, per trovare le parole cambiate
+    private final long[] drawnRows = new long[FrameBuffer.HIRES_HEIGHT * 2];
+    private boolean hires;
+
+    public ChipPanel(FramePipeline frames) {
+        this.frames = frames;
         this.scale = 10;
     }
 
     public void paint(Graphics g){
-        byte[] display = chip.getDisplay();
-        for(int i = 0; i < display.length; i++){
-            if(display[i] == 0){
-                g.setColor(Color.BLACK);
-            } else {
-                g.setColor(Color.WHITE);
-            }
+        //Il frame più recente pubblicato al vblank, mai quello in scrittura
+        FramePipeline.Frame frame = frames.take();
+        if (frame != null) {
+            updateImage(frame);
+        }
+        if (image == null) {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, getWidth(), getHeight());
+            return;
+        }
 
-            if(chip.isInSuperMode()){
-                int x = (i % 128);
-                int y = (int)Math.floor(i / 128);
+        //In modalità SCHIP-8 i pixel sono grandi la metà
+        int pixelScale = hires ? scale / 2 : scale;
+        g.drawImage(image, 0, 0, image.getWidth() * pixelScale, image.getHeight() * pixelScale, null);
+    }
+
+    private void updateImage(FramePipeline.Frame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int words = frame.getWordsPerRow();
+        long[] rows = frame.getRows();
 
-                g.fillRect(x * scale/2, y * scale/2, scale/2, scale/2);
-            } else {
-                int x = (i % 64);
-                int y = (int)Math.floor(i / 64);
+        //Cambio di modalità: tutta l'immagine va ridisegnata
+        boolean all = image == null || image.getWidth() != width;
+        if (all) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        hires = frame.isHires();
 
-                g.fillRect(x * scale, y * scale, scale, scale );
+        //I frame saltati non contano: si confronta con l'ultimo disegnato
+        for (int i = 0; i < height * words; i++) {
+            long word = rows[i];
+            if (!all && word == drawnRows[i]) {
+                continue;
+            }
+            drawnRows[i] = word;
+            int offset = (i / words) * width + (i % words) * 64;
+            for (int x = 0; x < 64; x++) {
+                pixels[offset + x] = (word << x) < 0 ? ON : OFF;
             }
         }
     }
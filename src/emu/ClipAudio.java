@@ -0,0 +1,39 @@
+package emu;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Plays a sample once every time the sound timer starts. The file is decoded
+ * once into a single Clip, that is rewound for every beep.
+ */
+public class ClipAudio implements AudioOutput {
+
+    private final Clip clip;
+    private boolean playing;
+
+    public ClipAudio(File file) throws IOException, UnsupportedAudioFileException, LineUnavailableException {
+        try (AudioInputStream stream = AudioSystem.getAudioInputStream(file)) {
+            clip = AudioSystem.getClip();
+            clip.open(stream);
+        }
+    }
+
+    @Override
+    public void vblank(int soundTimer) {
+        //Il beep parte quando il timer passa da 0 a un valore positivo
+        boolean sound = soundTimer > 0;
+        if (sound && !playing) {
+            clip.stop();
+            clip.setFramePosition(0);
+            clip.start();
+        }
+        playing = sound;
+    }
+
+    @Override
+    public void close() {
+        clip.close();
+    }
+}
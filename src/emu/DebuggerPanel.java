@@ -0,0 +1,246 @@
+package emu;
+
+import chip.Chip;
+import chip.Debugger;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.HierarchyEvent;
+
+/**
+ * Registers, stack and code around the pc of a Chip, with the commands of its
+ * {@link Debugger}. The view is refreshed ten times a second from the EDT, only
+ * while it is showing: while the Chip runs the values are only a snapshot,
+ * while it is paused they are exact.
+ */
+public class DebuggerPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    //Istruzioni mostrate prima e dopo il pc
+    private static final int CODE_CONTEXT = 8;
+
+    private final Chip chip;
+    private final Debugger debugger;
+    //Il thread dell'emulazione dorme mentre è fermo: ogni comando lo sveglia
+    private final Runnable wakeUp;
+
+    private final JLabel status = new JLabel(" ");
+    private final JTextArea registers = new JTextArea(6, 26);
+    private final JTextArea stack = new JTextArea(16, 8);
+    private final JTextArea code = new JTextArea(CODE_CONTEXT * 2 + 1, 18);
+    private final DefaultListModel<String> breakpointList = new DefaultListModel<>();
+    private final DefaultListModel<String> watchList = new DefaultListModel<>();
+    private final JTextField breakpointField = new JTextField(6);
+    private final JTextField conditionField = new JTextField(12);
+    private final JTextField watchField = new JTextField(6);
+    private final Timer timer = new Timer(100, e -> refresh());
+
+    public DebuggerPanel(Chip chip, Debugger debugger, Runnable wakeUp) {
+        this.chip = chip;
+        this.debugger = debugger;
+        this.wakeUp = wakeUp;
+        setLayout(new BorderLayout(4, 4));
+        setBorder(BorderFactory.createEmptyBorder(4, 4, 4, 4));
+
+        Font mono = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+        for (JTextArea area : new JTextArea[]{registers, stack, code}) {
+            area.setFont(mono);
+            area.setEditable(false);
+        }
+
+        /*
+            Comandi
+         */
+        JPanel commands = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        commands.add(button("Pause", debugger::pause));
+        commands.add(button("Continue", debugger::resume));
+        commands.add(button("Step", debugger::step));
+        commands.add(button("Step over", () -> debugger.stepOver(chip)));
+        commands.add(button("Step out", () -> debugger.stepOut(chip)));
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(commands, BorderLayout.NORTH);
+        top.add(status, BorderLayout.SOUTH);
+        add(top, BorderLayout.NORTH);
+
+        /*
+            Stato del Chip
+         */
+        JPanel state = new JPanel(new BorderLayout(4, 4));
+        state.add(titled(registers, "Registers"), BorderLayout.NORTH);
+        state.add(titled(code, "Code"), BorderLayout.CENTER);
+        state.add(titled(stack, "Stack"), BorderLayout.EAST);
+        add(state, BorderLayout.CENTER);
+
+        /*
+            Breakpoint e watchpoint
+         */
+        JPanel points = new JPanel(new GridLayout(2, 1, 4, 4));
+
+        JPanel breakpointPanel = new JPanel(new BorderLayout());
+        JPanel breakpointInput = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        breakpointInput.add(new JLabel("Address"));
+        breakpointInput.add(breakpointField);
+        breakpointInput.add(new JLabel("if"));
+        breakpointInput.add(conditionField);
+        breakpointInput.add(button("Add", this::addBreakpoint));
+        breakpointInput.add(button("Remove", this::removeBreakpoint));
+        breakpointPanel.add(breakpointInput, BorderLayout.NORTH);
+        breakpointPanel.add(new JScrollPane(new JList<>(breakpointList)), BorderLayout.CENTER);
+        breakpointPanel.setBorder(BorderFactory.createTitledBorder("Breakpoints"));
+        points.add(breakpointPanel);
+
+        JPanel watchPanel = new JPanel(new BorderLayout());
+        JPanel watchInput = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        watchInput.add(new JLabel("V0-VF, I or [address]"));
+        watchInput.add(watchField);
+        watchInput.add(button("Add", () -> watch(true)));
+        watchInput.add(button("Remove", () -> watch(false)));
+        watchPanel.add(watchInput, BorderLayout.NORTH);
+        watchPanel.add(new JScrollPane(new JList<>(watchList)), BorderLayout.CENTER);
+        watchPanel.setBorder(BorderFactory.createTitledBorder("Watches"));
+        points.add(watchPanel);
+
+        points.setPreferredSize(new Dimension(420, 260));
+        add(points, BorderLayout.SOUTH);
+
+        //Finestra chiusa o nascosta: niente aggiornamenti
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0) {
+                if (isShowing()) {
+                    refresh();
+                    timer.start();
+                } else {
+                    timer.stop();
+                }
+            }
+        });
+        refresh();
+    }
+
+    private JButton button(String text, Runnable action) {
+        JButton button = new JButton(text);
+        button.addActionListener(e -> {
+            action.run();
+            wakeUp.run();
+        });
+        return button;
+    }
+
+    private static JComponent titled(JTextArea area, String title) {
+        JScrollPane pane = new JScrollPane(area);
+        pane.setBorder(BorderFactory.createTitledBorder(title));
+        return pane;
+    }
+
+    private void addBreakpoint() {
+        try {
+            int address = Debugger.parseNumber(breakpointField.getText());
+            String condition = conditionField.getText().trim();
+            if (condition.isEmpty()) {
+                debugger.addBreakpoint(address);
+            } else {
+                debugger.addBreakpoint(address, Debugger.parseCondition(condition), condition);
+            }
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Breakpoint", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void removeBreakpoint() {
+        try {
+            debugger.removeBreakpoint(Debugger.parseNumber(breakpointField.getText()));
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Breakpoint", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void watch(boolean add) {
+        String text = watchField.getText().trim().toUpperCase();
+        try {
+            if (text.equals("I")) {
+                if (add) {
+                    debugger.watchRegister(Debugger.WATCH_I);
+                } else {
+                    debugger.unwatchRegister(Debugger.WATCH_I);
+                }
+            } else if (text.length() == 2 && text.charAt(0) == 'V' && Character.digit(text.charAt(1), 16) >= 0) {
+                int register = Character.digit(text.charAt(1), 16);
+                if (add) {
+                    debugger.watchRegister(register);
+                } else {
+                    debugger.unwatchRegister(register);
+                }
+            } else if (text.startsWith("[") && text.endsWith("]")) {
+                int address = Debugger.parseNumber(text.substring(1, text.length() - 1));
+                if (add) {
+                    debugger.watchMemory(address);
+                } else {
+                    debugger.unwatchMemory(address);
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown watch " + text);
+            }
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, e.getMessage(), "Watch", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void refresh() {
+        String reason = debugger.getPauseReason();
+        status.setText(debugger.isPaused() ? "Paused: " + reason : "Running");
+
+        byte[] V = chip.getV();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 16; i++) {
+            text.append(String.format("V%X=%02X", i, V[i] & 0xFF)).append(i % 4 == 3 ? '\n' : ' ');
+        }
+        text.append(String.format("I=%03X PC=%03X SP=%X%nDT=%02X ST=%02X",
+                chip.getI(), chip.getPc(), chip.getStackPointer(), chip.getDelayTimer(), chip.getSoundTimer()));
+        setText(registers, text.toString());
+
+        char[] calls = chip.getStack();
+        int sp = chip.getStackPointer();
+        text.setLength(0);
+        for (int i = 0; i < calls.length; i++) {
+            text.append(i < sp ? String.format("%X %03X", i, (int) calls[i]) : String.format("%X", i)).append('\n');
+        }
+        setText(stack, text.toString());
+
+        //Le istruzioni sono lunghe 2 byte: si parte allineati al pc
+        int pc = chip.getPc();
+        text.setLength(0);
+        for (int address = pc - CODE_CONTEXT * 2; address <= pc + CODE_CONTEXT * 2; address += 2) {
+            if (address < 0 || address > 4094) {
+                text.append('\n');
+                continue;
+            }
+            text.append(address == pc ? "> " : debugger.hasBreakpoint(address) ? "* " : "  ");
+            text.append(String.format("%03X  %02X%02X%n", address, chip.peek(address), chip.peek(address + 1)));
+        }
+        setText(code, text.toString());
+
+        setList(breakpointList, debugger.getBreakpoints());
+        setList(watchList, debugger.getWatches());
+    }
+
+    //Riscrivere solo se cambia, altrimenti si perde la selezione e lo scroll
+    private static void setText(JTextArea area, String text) {
+        if (!text.equals(area.getText())) {
+            area.setText(text);
+        }
+    }
+
+    private static void setList(DefaultListModel<String> model, String[] lines) {
+        boolean same = model.size() == lines.length;
+        for (int i = 0; same && i < lines.length; i++) {
+            same = lines[i].equals(model.get(i));
+        }
+        if (!same) {
+            model.clear();
+            for (String line : lines) {
+                model.addElement(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package emu;
+
+import jdk.jfr.*;
+
+/**
+ * Flight Recorder events of the emulation loop, all in the "CHIP-8" category.
+ * While no recording is running an event costs an allocation and a check.
+ *
+ * Record them with -XX:StartFlightRecording or jcmd JFR.start, then open the
+ * file with JDK Mission Control or "jfr print --categories CHIP-8".
+ */
+public final class EmulatorEvents {
+
+    private EmulatorEvents() {
+    }
+
+    @Name("chip8.Frame")
+    @Label("Frame")
+    @Category("CHIP-8")
+    @Description("One 60 Hz frame: instructions, timers and vblank, without the wait for the next frame")
+    @StackTrace(false)
+    public static final class Frame extends Event {
+        @Label("Frame Number")
+        long frame;
+
+        @Label("Instructions")
+        int instructions;
+
+        @Label("Drawn")
+        @Description("The screen changed and has been published")
+        boolean drawn;
+    }
+
+    @Name("chip8.Draw")
+    @Label("Draw")
+    @Category("CHIP-8")
+    @Description("The screen published to the renderer")
+    @StackTrace(false)
+    public static final class Draw extends Event {
+        @Label("Frame Number")
+        long frame;
+
+        @Label("Hires")
+        boolean hires;
+    }
+
+    @Name("chip8.Sound")
+    @Label("Sound")
+    @Category("CHIP-8")
+    @Description("A beep, from the frame the sound timer is set to the frame it reaches 0")
+    @StackTrace(false)
+    public static final class Sound extends Event {
+        @Label("Sound Timer")
+        @Description("Value of the sound timer when the beep started")
+        int soundTimer;
+
+        @Label("Audible")
+        @Description("False if the audio was disabled in the menu")
+        boolean audible;
+    }
+
+    @Name("chip8.Pause")
+    @Label("Pause")
+    @Category("CHIP-8")
+    @Description("The emulation paused from the menu or by the debugger, until it resumed")
+    @StackTrace(false)
+    public static final class Pause extends Event {
+        @Label("Reason")
+        String reason;
+    }
+
+    @Name("chip8.Reset")
+    @Label("Reset")
+    @Category("CHIP-8")
+    @StackTrace(false)
+    public static final class Reset extends Event {
+        @Label("Frame Number")
+        long frame;
+    }
+}
@@ -0,0 +1,283 @@
+package emu;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the emulation loop: the loop reports what happens in every frame,
+ * this class emits the {@link EmulatorEvents} and keeps the counters of
+ * {@link EmulatorStatsMBean}.
+ *
+ * All the reporting methods are called by the emulation thread only. The
+ * counters are volatile and written by that thread alone, the per second
+ * gauges are computed by it once a second, so JMX reads never lock anything.
+ */
+public class EmulatorStats implements EmulatorStatsMBean {
+
+    private static final AtomicInteger NEXT_INSTANCE = new AtomicInteger();
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private final Scheduler scheduler;
+    private final FramePipeline frames;
+    private ObjectName name;
+
+    private volatile long frameCount;
+    private volatile long instructions;
+    private volatile long draws;
+    private volatile long sounds;
+    private volatile long pauses;
+    private volatile long resets;
+    private volatile boolean paused;
+
+    //Misure dell'ultimo secondo completo
+    private volatile double instructionsPerSecond;
+    private volatile double frameRate;
+    private volatile double[] frameTimes = new double[4];
+
+    //Del thread dell'emulazione: il secondo in corso
+    //0 fino al primo frame, il tempo prima non conta
+    private long windowStart;
+    private long windowFrames;
+    private long windowInstructions;
+    private long[] windowTimes = new long[256];
+
+    private long frameStart;
+    private long pauseStart;
+    private EmulatorEvents.Frame frameEvent;
+    private EmulatorEvents.Sound soundEvent;
+    private EmulatorEvents.Pause pauseEvent;
+
+    public EmulatorStats(Scheduler scheduler, FramePipeline frames) {
+        this.scheduler = scheduler;
+        this.frames = frames;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server. A failure is printed
+     * and the emulator goes on without it.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            name = new ObjectName("chip8:type=Emulator,instance=" + NEXT_INSTANCE.getAndIncrement());
+            server.registerMBean(this, name);
+            INSTANCES.incrementAndGet();
+        } catch (JMException e) {
+            e.printStackTrace();
+            name = null;
+        }
+    }
+
+    public void unregister() {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            INSTANCES.decrementAndGet();
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        name = null;
+    }
+
+    public void frameStarted() {
+        frameStart = System.nanoTime();
+        if (windowStart == 0) {
+            windowStart = frameStart;
+        }
+        if (pauseEvent != null) {
+            pauseEvent.commit();
+            pauseEvent = null;
+            //Il secondo in corso riparte da dove si era fermato: la pausa
+            //non deve abbassare istruzioni e frame al secondo
+            windowStart += frameStart - pauseStart;
+        }
+        paused = false;
+        frameEvent = new EmulatorEvents.Frame();
+        frameEvent.begin();
+    }
+
+    public void frameEnded(int executed, boolean drawn) {
+        long now = System.nanoTime();
+        frameEvent.end();
+        if (frameEvent.shouldCommit()) {
+            frameEvent.frame = scheduler.getFrames();
+            frameEvent.instructions = executed;
+            frameEvent.drawn = drawn;
+            frameEvent.commit();
+        }
+        frameEvent = null;
+
+        frameCount++;
+        instructions += executed;
+        if (windowFrames == windowTimes.length) {
+            windowTimes = Arrays.copyOf(windowTimes, windowTimes.length * 2);
+        }
+        windowTimes[(int) windowFrames++] = now - frameStart;
+        windowInstructions += executed;
+        if (now - windowStart >= WINDOW_NANOS) {
+            closeWindow(now);
+        }
+    }
+
+    //Pubblica le misure del secondo appena finito e ne comincia un altro
+    private void closeWindow(long now) {
+        double seconds = (now - windowStart) / 1e9;
+        instructionsPerSecond = windowInstructions / seconds;
+        frameRate = windowFrames / seconds;
+
+        long[] times = Arrays.copyOf(windowTimes, (int) windowFrames);
+        Arrays.sort(times);
+        frameTimes = new double[]{
+                percentile(times, 50), percentile(times, 95), percentile(times, 99),
+                times.length > 0 ? times[times.length - 1] / 1e6 : 0};
+
+        windowStart = now;
+        windowFrames = 0;
+        windowInstructions = 0;
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    public void drawn(boolean hires) {
+        draws++;
+        EmulatorEvents.Draw event = new EmulatorEvents.Draw();
+        if (event.shouldCommit()) {
+            event.frame = scheduler.getFrames();
+            event.hires = hires;
+            event.commit();
+        }
+    }
+
+    /**
+     * Called at every vblank with the sound timer, a beep starts when it
+     * leaves 0 and ends when it gets back to 0
+     */
+    public void vblank(int soundTimer, boolean audible) {
+        if (soundTimer > 0 && soundEvent == null) {
+            sounds++;
+            soundEvent = new EmulatorEvents.Sound();
+            soundEvent.soundTimer = soundTimer;
+            soundEvent.audible = audible;
+            soundEvent.begin();
+        } else if (soundTimer == 0 && soundEvent != null) {
+            soundEvent.commit();
+            soundEvent = null;
+        }
+    }
+
+    /**
+     * Called at every loop iteration while the emulation is paused. The time
+     * spent paused is left out of the per second gauges.
+     */
+    public void pausedFor(String reason) {
+        if (pauseEvent == null) {
+            pauses++;
+            paused = true;
+            pauseStart = System.nanoTime();
+            pauseEvent = new EmulatorEvents.Pause();
+            pauseEvent.reason = reason;
+            pauseEvent.begin();
+        }
+    }
+
+    public void reset() {
+        resets++;
+        EmulatorEvents.Reset event = new EmulatorEvents.Reset();
+        event.frame = scheduler.getFrames();
+        event.commit();
+    }
+
+    @Override
+    public double getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    @Override
+    public int getTargetInstructionsPerSecond() {
+        return scheduler.getInstructionsPerSecond();
+    }
+
+    @Override
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    @Override
+    public double getFrameTimeP50Millis() {
+        return frameTimes[0];
+    }
+
+    @Override
+    public double getFrameTimeP95Millis() {
+        return frameTimes[1];
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        return frameTimes[2];
+    }
+
+    @Override
+    public double getFrameTimeMaxMillis() {
+        return frameTimes[3];
+    }
+
+    @Override
+    public long getFrames() {
+        return frameCount;
+    }
+
+    @Override
+    public long getInstructions() {
+        return instructions;
+    }
+
+    @Override
+    public long getDraws() {
+        return draws;
+    }
+
+    @Override
+    public long getDroppedRepaints() {
+        return frames.getDroppedFrames();
+    }
+
+    @Override
+    public long getSounds() {
+        return sounds;
+    }
+
+    @Override
+    public long getPauses() {
+        return pauses;
+    }
+
+    @Override
+    public long getResets() {
+        return resets;
+    }
+
+    @Override
+    public boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public int getInstanceCount() {
+        return INSTANCES.get();
+    }
+}
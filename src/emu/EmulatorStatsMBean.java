@@ -0,0 +1,41 @@
+package emu;
+
+/**
+ * Live counters and gauges of an emulator, registered as
+ * "chip8:type=Emulator,instance=N" and readable with jconsole or any JMX client.
+ * The rates and the frame times cover the last complete second.
+ */
+public interface EmulatorStatsMBean {
+
+    double getInstructionsPerSecond();
+
+    int getTargetInstructionsPerSecond();
+
+    double getFrameRate();
+
+    double getFrameTimeP50Millis();
+
+    double getFrameTimeP95Millis();
+
+    double getFrameTimeP99Millis();
+
+    double getFrameTimeMaxMillis();
+
+    long getFrames();
+
+    long getInstructions();
+
+    long getDraws();
+
+    long getDroppedRepaints();
+
+    long getSounds();
+
+    long getPauses();
+
+    long getResets();
+
+    boolean isPaused();
+
+    int getInstanceCount();
+}
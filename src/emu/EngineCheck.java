@@ -0,0 +1,244 @@
+package emu;
+
+import chip.AotCompiler;
+import chip.BatchInterpreter;
+import chip.Chip;
+import chip.ChipState;
+import chip.CompiledProgram;
+import chip.Engine;
+import chip.RewindBuffer;
+import chip.Rom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs the same ROM on two Chips in lockstep, the reference one with
+ * {@link Engine#SWITCH} and the other with the given engine, and stops at the
+ * first instruction after which their state differs.
+ * With {@link Engine#BLOCKS} the states are compared after every frame.
+ *
+ * With AOT the ROM is compiled by {@link AotCompiler} into a temporary
+ * directory, then the compiled program runs against the switch and the states
+ * are compared after every frame.
+ *
+ * With BATCH, {@link BatchInterpreter} runs {@link #BATCH_LANES} copies of the
+ * ROM, each with a different key held down, against as many Chips, and the
+ * lanes are compared after every frame.
+ *
+ * With REWIND the ROM runs with random writes after the program, pushing every
+ * frame into a small {@link RewindBuffer}, and steps back now and then: every
+ * restored frame is compared with the state saved when it was pushed.
+ *
+ * Usage: EngineCheck rom [cycles] [TABLE|BLOCKS|BATCH|AOT|REWIND]
+ */
+public class EngineCheck {
+
+    static final int BATCH_LANES = 64;
+
+    //Store piccolo e keyframe fitti: lo store gira spesso e i delta sono di ogni dimensione
+    static final int REWIND_FRAMES = 400;
+    static final int REWIND_KEYFRAME_INTERVAL = 10;
+    static final int REWIND_STORE_BYTES = 20000;
+
+    //Stesso seed per i due Chip, così anche CXNN deve dare lo stesso risultato
+    static final long SEED = 1;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: EngineCheck rom [cycles] [TABLE|BLOCKS|BATCH|AOT|REWIND]");
+            System.exit(1);
+        }
+        long cycles = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        if (args.length > 2 && args[2].equalsIgnoreCase("BATCH")) {
+            checkBatch(args[0], cycles);
+            return;
+        }
+        if (args.length > 2 && args[2].equalsIgnoreCase("REWIND")) {
+            checkRewind(args[0], cycles);
+            return;
+        }
+        boolean aot = args.length > 2 && args[2].equalsIgnoreCase("AOT");
+        Engine engine = aot ? Engine.SWITCH : args.length > 2 ? Engine.valueOf(args[2].toUpperCase()) : Engine.TABLE;
+        int cyclesPerFrame = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND / Scheduler.TIMER_HZ;
+
+        Chip reference = new Chip();
+        reference.init();
+        reference.setEngine(Engine.SWITCH);
+        reference.setSeed(SEED);
+        reference.loadProgram(args[0]);
+
+        Chip checked = new Chip();
+        checked.init();
+        checked.setEngine(engine);
+        checked.setSeed(SEED);
+        checked.loadProgram(args[0]);
+        if (aot) {
+            checked.setCompiledProgram(compile(args[0]));
+        }
+
+        long executed = 0;
+        while (executed < cycles && !reference.isEmulationStopped()) {
+            int pc = reference.getPc();
+            byte[] memory = reference.getMemory();
+            int opcode = ((memory[pc] & 0xFF) << 8) | (memory[pc + 1] & 0xFF);
+
+            int step = engine == Engine.BLOCKS || aot ? (int) Math.min(cyclesPerFrame, cycles - executed) : 1;
+            reference.run(step);
+            checked.run(step);
+            executed += step;
+            if (executed % cyclesPerFrame == 0) {
+                reference.tickTimers();
+                checked.tickTimers();
+            }
+
+            String difference = difference(reference, checked);
+            if (difference != null) {
+                System.out.println(String.format("Engines differ after instruction %d, %04X at %03X: %s",
+                        executed - 1, opcode, pc, difference));
+                System.exit(2);
+            }
+        }
+        System.out.println("Engines agree on " + executed + " instructions"
+                + (aot && !checked.isCompiledCodeValid() ? ", the ROM overwrote its compiled code" : ""));
+    }
+
+    private static CompiledProgram compile(String rom) {
+        try {
+            Path dir = Files.createTempDirectory("chip8-aot");
+            AotCompiler compiler = new AotCompiler(Rom.load(Paths.get(rom)));
+            return CompiledProgram.load(compiler.compile("AotCheck", rom, dir));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void checkBatch(String rom, long cycles) {
+        int cyclesPerFrame = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND / Scheduler.TIMER_HZ;
+        Chip[] reference = new Chip[BATCH_LANES];
+        Chip[] lanes = new Chip[BATCH_LANES];
+        for (int lane = 0; lane < BATCH_LANES; lane++) {
+            reference[lane] = new Chip();
+            lanes[lane] = new Chip();
+            for (Chip chip : new Chip[]{reference[lane], lanes[lane]}) {
+                chip.init();
+                chip.setSeed(SEED + lane);
+                chip.loadProgram(rom);
+                chip.setKeys(1 << (lane % 16));
+            }
+        }
+
+        BatchInterpreter batch = new BatchInterpreter(lanes);
+        long executed = 0;
+        while (executed < cycles) {
+            for (Chip chip : reference) {
+                chip.run(cyclesPerFrame);
+                chip.tickTimers();
+            }
+            batch.run(cyclesPerFrame);
+            batch.tickTimers();
+            batch.store();
+            executed += cyclesPerFrame;
+
+            for (int lane = 0; lane < BATCH_LANES; lane++) {
+                String difference = difference(reference[lane], lanes[lane]);
+                if (difference != null) {
+                    System.out.println(String.format("Lane %d differs in the frame ending at instruction %d: %s",
+                            lane, executed, difference));
+                    System.exit(2);
+                }
+            }
+        }
+        System.out.println(String.format("Batch agrees on %d instructions x %d lanes, %d grouped and %d scalar lane steps",
+                executed, BATCH_LANES, batch.getGroupedSteps(), batch.getScalarSteps()));
+    }
+
+    private static void checkRewind(String rom, long cycles) {
+        int cyclesPerFrame = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND / Scheduler.TIMER_HZ;
+        Chip chip = new Chip();
+        chip.init();
+        chip.setSeed(SEED);
+        chip.loadProgram(rom);
+        Chip expected = new Chip();
+        expected.init();
+
+        //Lo stato di ogni frame ancora nel buffer, per numero di frame
+        ChipState[] saved = new ChipState[REWIND_FRAMES];
+        for (int i = 0; i < saved.length; i++) {
+            saved[i] = new ChipState();
+        }
+        RewindBuffer rewind = new RewindBuffer(REWIND_FRAMES, REWIND_KEYFRAME_INTERVAL, REWIND_STORE_BYTES);
+        Random random = new Random(SEED);
+        int free = Math.min(Rom.START + (int) new File(rom).length(), 4095);
+
+        long executed = 0;
+        long frame = -1;
+        long stepsBack = 0;
+        while (executed < cycles) {
+            chip.run(cyclesPerFrame);
+            chip.tickTimers();
+            executed += cyclesPerFrame;
+
+            //Da pochi byte a qualche centinaio cambiati nel frame
+            byte[] memory = chip.getMemory();
+            int writes = random.nextInt(4) == 0 ? random.nextInt(400) : random.nextInt(8);
+            for (int i = 0; i < writes; i++) {
+                memory[free + random.nextInt(4096 - free)] = (byte) random.nextInt(256);
+            }
+
+            frame++;
+            rewind.push(chip);
+            chip.saveState(saved[(int) (frame % REWIND_FRAMES)]);
+
+            if (random.nextInt(8) == 0) {
+                for (int back = 1 + random.nextInt(30); back > 0 && rewind.stepBack(chip); back--) {
+                    frame--;
+                    stepsBack++;
+                    expected.loadState(saved[(int) (frame % REWIND_FRAMES)]);
+                    String difference = difference(expected, chip);
+                    if (difference != null) {
+                        System.out.println(String.format("Rewind differs at frame %d after %d steps back: %s",
+                                frame, stepsBack, difference));
+                        System.exit(2);
+                    }
+                }
+            }
+        }
+        System.out.println(String.format("Rewind agrees on %d steps back over %d instructions", stepsBack, executed));
+    }
+
+    /**
+     * @return a description of the first difference, or null if the states are the same
+     */
+    static String difference(Chip a, Chip b) {
+        if (a.getPc() != b.getPc()) {
+            return "pc " + a.getPc() + " != " + b.getPc();
+        }
+        if (a.getI() != b.getI()) {
+            return "I " + a.getI() + " != " + b.getI();
+        }
+        if (!Arrays.equals(a.getV(), b.getV())) {
+            return "V " + Arrays.toString(a.getV()) + " != " + Arrays.toString(b.getV());
+        }
+        if (a.getStackPointer() != b.getStackPointer()) {
+            return "stack pointer " + a.getStackPointer() + " != " + b.getStackPointer();
+        }
+        if (a.getDelayTimer() != b.getDelayTimer() || a.getSoundTimer() != b.getSoundTimer()) {
+            return "timers";
+        }
+        if (!Arrays.equals(a.getMemory(), b.getMemory())) {
+            return "memory";
+        }
+        if (a.isInSuperMode() != b.isInSuperMode() || !Arrays.equals(a.getDisplay(), b.getDisplay())) {
+            return "display";
+        }
+        return null;
+    }
+}
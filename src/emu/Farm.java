@@ -0,0 +1,253 @@
+package emu;
+
+import chip.Chip;
+import chip.Engine;
+import chip.Rom;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs many independent Chips in parallel on a fork-join pool, without any
+ * window and without waiting for the real time.
+ *
+ * The emulation advances in quanta: every quantum each instance runs
+ * framesPerQuantum frames of its own {@link Scheduler}, the instances being
+ * split among the threads of the pool. Between two quanta all the instances are
+ * at the same frame, so a {@link Controller} can read their state or give them input.
+ *
+ * Instance i uses seed + i for CXNN, so a run can be repeated exactly.
+ *
+ * Usage: Farm rom [--instances N] [--frames N] [--ips N] [--threads N] [--quantum N] [--engine E] [--seed N]
+ */
+public class Farm {
+
+    public static final int DEFAULT_FRAMES_PER_QUANTUM = 60;
+
+    /**
+     * Called for every instance before each of its frames, from the thread running it
+     */
+    @FunctionalInterface
+    public interface Controller {
+        void beforeFrame(int instance, Chip chip, long frame);
+    }
+
+    private final Chip[] chips;
+    private final Scheduler[] schedulers;
+    private final ForkJoinPool pool;
+    private final int framesPerQuantum;
+    private final int batchSize;
+    private Controller controller;
+
+    private long frames;
+    private long elapsedNanos;
+
+    /**
+     * @param chips                the instances, already initialized and with a program loaded
+     * @param instructionsPerSecond CPU rate of every instance, it can't be {@link Scheduler#UNLIMITED}
+     */
+    public Farm(Chip[] chips, int instructionsPerSecond, ForkJoinPool pool, int framesPerQuantum) {
+        if (instructionsPerSecond == Scheduler.UNLIMITED) {
+            throw new IllegalArgumentException("A farm needs a fixed CPU rate");
+        }
+        if (framesPerQuantum < 1) {
+            throw new IllegalArgumentException("Invalid quantum: " + framesPerQuantum);
+        }
+        this.chips = chips;
+        this.pool = pool;
+        this.framesPerQuantum = framesPerQuantum;
+        schedulers = new Scheduler[chips.length];
+        for (int i = 0; i < chips.length; i++) {
+            schedulers[i] = new Scheduler(chips[i], instructionsPerSecond);
+        }
+        //Qualche batch per thread, così chi finisce prima ruba lavoro agli altri
+        batchSize = Math.max(1, chips.length / (pool.getParallelism() * 8));
+    }
+
+    public void setController(Controller controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Runs every instance for the given number of frames, or until it stops
+     */
+    public void run(long frames) {
+        long start = System.nanoTime();
+        long done = 0;
+        while (done < frames) {
+            int quantum = (int) Math.min(framesPerQuantum, frames - done);
+            pool.invoke(new Batch(0, chips.length, quantum));
+            done += quantum;
+        }
+        this.frames += done;
+        elapsedNanos += System.nanoTime() - start;
+    }
+
+    private void runInstance(int instance, int quantum) {
+        Chip chip = chips[instance];
+        Scheduler scheduler = schedulers[instance];
+        Controller controller = this.controller;
+        for (int frame = 0; frame < quantum && !chip.isEmulationStopped(); frame++) {
+            if (controller != null) {
+                controller.beforeFrame(instance, chip, scheduler.getFrames());
+            }
+            scheduler.runFrame();
+        }
+    }
+
+    /**
+     * One quantum for the instances from start to end (excluded)
+     */
+    private final class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int start;
+        private final int end;
+        private final int quantum;
+
+        Batch(int start, int end, int quantum) {
+            this.start = start;
+            this.end = end;
+            this.quantum = quantum;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= batchSize) {
+                for (int i = start; i < end; i++) {
+                    runInstance(i, quantum);
+                }
+            } else {
+                int middle = (start + end) >>> 1;
+                invokeAll(new Batch(start, middle, quantum), new Batch(middle, end, quantum));
+            }
+        }
+    }
+
+    public Chip getChip(int instance) {
+        return chips[instance];
+    }
+
+    public int getInstances() {
+        return chips.length;
+    }
+
+    /**
+     * @return the frames run by {@link #run(long)}, the same for every instance
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return the instructions executed by all the instances
+     */
+    public long getInstructions() {
+        long instructions = 0;
+        for (Scheduler scheduler : schedulers) {
+            instructions += scheduler.getInstructions();
+        }
+        return instructions;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return total instructions per second of all the instances
+     */
+    public double getInstructionsPerSecond() {
+        return getInstructions() / (elapsedNanos / 1e9);
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: Farm rom [--instances N] [--frames N] [--ips N] [--threads N] [--quantum N] [--engine E] [--seed N]");
+            System.exit(1);
+        }
+
+        int instances = 1000;
+        long frames = 60 * 60;
+        int ips = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int quantum = DEFAULT_FRAMES_PER_QUANTUM;
+        Engine engine = Engine.SWITCH;
+        long seed = 0;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--instances":
+                    instances = Integer.parseInt(args[++i]);
+                    break;
+                case "--frames":
+                    frames = Long.parseLong(args[++i]);
+                    break;
+                case "--ips":
+                    ips = Integer.parseInt(args[++i]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--quantum":
+                    quantum = Integer.parseInt(args[++i]);
+                    break;
+                case "--engine":
+                    engine = Engine.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        //Letta una volta sola: le istanze condividono la sua memoria finché non la scrivono
+        Rom rom = null;
+        try {
+            rom = Rom.load(Paths.get(args[0]));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        long heapBefore = usedHeap();
+        Chip[] chips = new Chip[instances];
+        for (int i = 0; i < instances; i++) {
+            chips[i] = new Chip();
+            chips[i].init();
+            chips[i].setEngine(engine);
+            chips[i].setSeed(seed + i);
+            chips[i].shareProgram(rom);
+        }
+
+        long heapLoaded = usedHeap();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Farm farm = new Farm(chips, ips, pool, quantum);
+        farm.run(frames);
+        pool.shutdown();
+        long heapAfter = usedHeap();
+
+        double seconds = farm.getElapsedNanos() / 1e9;
+        System.out.println(String.format("%d instances, %d frames each, %d threads", instances, frames, threads));
+        System.out.println(String.format("Executed %d instructions in %.3f ms", farm.getInstructions(), seconds * 1e3));
+        System.out.println(String.format("Throughput %.2f MIPS, %.2f MIPS per thread",
+                farm.getInstructionsPerSecond() / 1e6, farm.getInstructionsPerSecond() / 1e6 / threads));
+        System.out.println(String.format("Heap per instance %d bytes after loading, %d bytes after the run",
+                (heapLoaded - heapBefore) / instances, (heapAfter - heapBefore) / instances));
+    }
+
+    //Heap occupato dopo una GC: approssimato, ma basta per confrontare le dimensioni delle istanze
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,117 @@
+package emu;
+
+import chip.FrameBuffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Triple buffer between the emulation thread, that publishes a finished frame
+ * at vblank, and the renderer on the EDT, that draws the newest one.
+ *
+ * There are three {@link Frame}s: the emulation thread copies the screen into
+ * its back frame and swaps it with the ready one, the renderer swaps its front
+ * frame with the ready one if it is newer. Neither side ever waits for the
+ * other, and the frame being drawn is never written.
+ *
+ * A frame replaced by a newer one before the renderer took it is dropped and
+ * counted in {@link #getDroppedFrames()}.
+ */
+public class FramePipeline {
+
+    /**
+     * A copy of the screen, the rows packed like in {@link FrameBuffer}
+     */
+    public static final class Frame {
+        private final long[] rows = new long[FrameBuffer.HIRES_HEIGHT * 2];
+        private boolean hires;
+        private long number;
+
+        public long[] getRows() {
+            return rows;
+        }
+
+        public boolean isHires() {
+            return hires;
+        }
+
+        public int getWidth() {
+            return hires ? FrameBuffer.HIRES_WIDTH : FrameBuffer.LORES_WIDTH;
+        }
+
+        public int getHeight() {
+            return hires ? FrameBuffer.HIRES_HEIGHT : FrameBuffer.LORES_HEIGHT;
+        }
+
+        public int getWordsPerRow() {
+            return hires ? 2 : 1;
+        }
+
+        /**
+         * @return 1 for the first published frame, then counting up
+         */
+        public long getNumber() {
+            return number;
+        }
+    }
+
+    //Nel frame pronto: indice del buffer + FRESH se non ancora preso dal renderer
+    private static final int INDEX = 3;
+    private static final int FRESH = 4;
+
+    private final Frame[] frames = {new Frame(), new Frame(), new Frame()};
+    private final AtomicInteger ready = new AtomicInteger(0);
+
+    //Di proprietà del thread dell'emulazione
+    private int back = 1;
+    private long published;
+
+    //Di proprietà del renderer
+    private int front = 2;
+
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    /**
+     * Copies the screen into a new frame and makes it the newest one.
+     * Only one thread may publish.
+     */
+    public void publish(FrameBuffer display) {
+        Frame frame = frames[back];
+        frame.hires = display.isHires();
+        long[] rows = display.getRows();
+        System.arraycopy(rows, 0, frame.rows, 0, rows.length);
+        frame.number = ++published;
+
+        int previous = ready.getAndSet(back | FRESH);
+        if ((previous & FRESH) != 0) {
+            dropped.incrementAndGet();
+        }
+        back = previous & INDEX;
+    }
+
+    /**
+     * @return the newest published frame, or null if there is nothing newer
+     * than the last one returned. Only one thread may take frames, the
+     * returned frame stays valid until the next call.
+     */
+    public Frame take() {
+        if ((ready.get() & FRESH) == 0) {
+            return null;
+        }
+        front = ready.getAndSet(front) & INDEX;
+        return frames[front];
+    }
+
+    /**
+     * @return the frames published so far
+     */
+    public long getPublishedFrames() {
+        return published;
+    }
+
+    /**
+     * @return the frames replaced by a newer one before being taken
+     */
+    public int getDroppedFrames() {
+        return dropped.get();
+    }
+}
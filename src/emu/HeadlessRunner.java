@@ -0,0 +1,359 @@
+package emu;
+
+import chip.AotCompiler;
+import chip.Chip;
+import chip.ChipState;
+import chip.CompiledProgram;
+import chip.Profiler;
+import chip.RewindBuffer;
+import chip.StateCodec;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a ROM without any window, as fast as possible, and prints the final
+ * machine state and the throughput.
+ * This class must not reference ChipFrame or ChipPanel: that keeps AWT/Swing
+ * out of the JVM.
+ *
+ * Usage: HeadlessRunner rom [--frames N] [--cycles N] [--ips N] [--input script] [--dump-memory]
+ *                           [--load-state file] [--save-state file] [--rewind] [--seed N]
+ *                           [--replay recording] [--profile stacks] [--profile-sample N]
+ *                           [--aot compiled.class]
+ *
+ * CXNN uses a fixed seed (0 unless --seed is given), so every run of a ROM with
+ * the same options gives the same result.
+ *
+ * The input script has one key event per line: "frame key down|up",
+ * where key is the CHIP-8 key in hex (0-F). Lines starting with # are ignored.
+ * A recording made with -Dchip8.record (see {@link InputLog}) is replayed with
+ * --replay, using the seed and the CPU rate it was recorded with.
+ *
+ * --profile counts the instructions with a {@link Profiler}, prints the ranked
+ * report and writes the call stacks in collapsed format, ready for a flame
+ * graph. With --profile-sample N only one instruction every N is counted and
+ * the engines run at full speed.
+ *
+ * --aot runs the ROM with a class written by {@link AotCompiler}.
+ */
+public class HeadlessRunner {
+
+    private final Chip chip;
+    private final Scheduler scheduler;
+    private final InputLog input;
+    private int keys;
+    private RewindBuffer rewind;
+
+    private long frames;
+    private long instructions;
+    private long elapsedNanos;
+
+    public HeadlessRunner(Chip chip, int instructionsPerSecond, InputLog input) {
+        if (instructionsPerSecond == Scheduler.UNLIMITED) {
+            throw new IllegalArgumentException("Headless runs need a fixed CPU rate");
+        }
+        this.chip = chip;
+        this.scheduler = new Scheduler(chip, instructionsPerSecond);
+        this.input = input;
+    }
+
+    /**
+     * Runs until maxFrames frames or maxCycles instructions have been executed,
+     * or until the ROM exits.
+     */
+    public void run(long maxFrames, long maxCycles) {
+        int nextEvent = 0;
+        long start = System.nanoTime();
+        while (frames < maxFrames && instructions < maxCycles && !chip.isEmulationStopped()) {
+            while (nextEvent < input.size() && input.getFrame(nextEvent) <= frames) {
+                apply(input.getType(nextEvent), input.getValue(nextEvent));
+                nextEvent++;
+            }
+            //Anche dopo un reset, che li azzera nel Chip
+            chip.setKeys(keys);
+
+            instructions += scheduler.runFrame(maxCycles - instructions);
+            frames++;
+            if (rewind != null) {
+                rewind.push(chip);
+            }
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void apply(int type, int value) {
+        switch (type) {
+            case InputLog.EVENT_KEYS:
+                keys = value;
+                break;
+            case InputLog.EVENT_RESET:
+                chip.reset();
+                break;
+            case InputLog.EVENT_SPEED:
+                scheduler.setInstructionsPerSecond(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void printReport(PrintStream out, boolean dumpMemory) {
+        byte[] V = chip.getV();
+        out.println("Registers");
+        for (int i = 0; i < V.length; i++) {
+            out.print(String.format("  V%X=%02X", i, V[i] & 0xFF));
+            if (i % 8 == 7) {
+                out.println();
+            }
+        }
+        out.println(String.format("  I=%03X PC=%03X SP=%d DT=%d ST=%d",
+                chip.getI(), chip.getPc(), chip.getStackPointer(), chip.getDelayTimer(), chip.getSoundTimer()));
+
+        byte[] memory = chip.getMemory();
+        out.println("Memory SHA-256 " + memoryHash(memory));
+        if (dumpMemory) {
+            for (int row = 0; row < memory.length; row += 16) {
+                StringBuilder line = new StringBuilder(String.format("  %03X:", row));
+                for (int i = row; i < row + 16; i++) {
+                    line.append(String.format(" %02X", memory[i] & 0xFF));
+                }
+                out.println(line);
+            }
+        }
+
+        int width = chip.isInSuperMode() ? 128 : 64;
+        byte[] display = chip.getDisplay();
+        out.println("Display " + width + "x" + (display.length / width));
+        for (int y = 0; y < display.length / width; y++) {
+            StringBuilder line = new StringBuilder(width);
+            for (int x = 0; x < width; x++) {
+                line.append(display[y * width + x] != 0 ? '#' : '.');
+            }
+            out.println(line);
+        }
+
+        if (rewind != null) {
+            out.println(String.format("Rewind %d frames, %d KB of deltas, %d KB allocated",
+                    rewind.getFrames(), rewind.getDeltaBytes() / 1024, rewind.getAllocatedBytes() / 1024));
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        out.println(String.format("Executed %d instructions in %d frames, %.3f ms", instructions, frames, elapsedNanos / 1e6));
+        out.println(String.format("Throughput %.2f MIPS, %.0f frames/s", instructions / seconds / 1e6, frames / seconds));
+    }
+
+    /**
+     * Records every frame of the run in the given buffer, null to stop recording
+     */
+    public void setRewind(RewindBuffer rewind) {
+        this.rewind = rewind;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    private static String memoryHash(byte[] memory) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(memory);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static List<KeyEvent> readScript(File file) throws IOException {
+        List<KeyEvent> events = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                if (parts.length != 3 || !(parts[2].equals("down") || parts[2].equals("up"))) {
+                    throw new IOException(file + ":" + lineNumber + ": expected \"frame key down|up\"");
+                }
+                int key = Integer.parseInt(parts[1], 16);
+                if (key < 0 || key > 0xF) {
+                    throw new IOException(file + ":" + lineNumber + ": invalid key " + parts[1]);
+                }
+                events.add(new KeyEvent(Long.parseLong(parts[0]), key, parts[2].equals("down")));
+            }
+        }
+        events.sort((a, b) -> Long.compare(a.frame, b.frame));
+        return events;
+    }
+
+    /**
+     * The key events of a script as the key mask changes of an {@link InputLog}
+     */
+    public static InputLog toInputLog(List<KeyEvent> script, long seed, int instructionsPerSecond) {
+        InputLog log = new InputLog(seed, instructionsPerSecond, 0, 0);
+        int mask = 0;
+        for (KeyEvent event : script) {
+            mask = event.pressed ? mask | (1 << event.key) : mask & ~(1 << event.key);
+            log.add(event.frame, InputLog.EVENT_KEYS, mask);
+        }
+        return log;
+    }
+
+    public static class KeyEvent {
+        public final long frame;
+        public final int key;
+        public final boolean pressed;
+
+        public KeyEvent(long frame, int key, boolean pressed) {
+            this.frame = frame;
+            this.key = key;
+            this.pressed = pressed;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: HeadlessRunner rom [--frames N] [--cycles N] [--ips N] [--input script] [--dump-memory]"
+                    + " [--load-state file] [--save-state file] [--rewind] [--seed N] [--replay recording]"
+                    + " [--profile stacks] [--profile-sample N] [--aot compiled.class]");
+            System.exit(1);
+        }
+
+        long maxFrames = Long.MAX_VALUE;
+        long maxCycles = Long.MAX_VALUE;
+        int ips = Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND;
+        List<KeyEvent> script = new ArrayList<>();
+        boolean dumpMemory = false;
+        File loadState = null;
+        File saveState = null;
+        boolean recordRewind = false;
+        long seed = 0;
+        InputLog replay = null;
+        File profileFile = null;
+        int sampleInterval = 0;
+        File aotFile = null;
+
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--frames":
+                    maxFrames = Long.parseLong(args[++i]);
+                    break;
+                case "--cycles":
+                    maxCycles = Long.parseLong(args[++i]);
+                    break;
+                case "--ips":
+                    ips = Integer.parseInt(args[++i]);
+                    break;
+                case "--input":
+                    script = readScript(new File(args[++i]));
+                    break;
+                case "--dump-memory":
+                    dumpMemory = true;
+                    break;
+                case "--load-state":
+                    loadState = new File(args[++i]);
+                    break;
+                case "--save-state":
+                    saveState = new File(args[++i]);
+                    break;
+                case "--rewind":
+                    recordRewind = true;
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(args[++i]);
+                    break;
+                case "--replay":
+                    replay = InputLog.read(new File(args[++i]));
+                    break;
+                case "--profile":
+                    profileFile = new File(args[++i]);
+                    break;
+                case "--profile-sample":
+                    sampleInterval = Integer.parseInt(args[++i]);
+                    break;
+                case "--aot":
+                    aotFile = new File(args[++i]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        if (maxFrames == Long.MAX_VALUE && maxCycles == Long.MAX_VALUE) {
+            maxFrames = 60 * 60;
+        }
+
+        InputLog input = toInputLog(script, seed, ips);
+        if (replay != null) {
+            if (!replay.matchesRom(Files.readAllBytes(new File(args[0]).toPath()))) {
+                System.err.println("Warning: the recording was made with a different ROM");
+            }
+            input = replay;
+            seed = replay.getSeed();
+            ips = replay.getInstructionsPerSecond();
+        }
+
+        Chip chip = new Chip();
+        chip.init();
+        chip.setSeed(seed);
+        chip.loadProgram(args[0]);
+
+        ChipState state = new ChipState();
+        if (loadState != null) {
+            StateCodec.read(loadState, state);
+            chip.loadState(state);
+        }
+
+        if (aotFile != null) {
+            chip.setCompiledProgram(CompiledProgram.load(aotFile.toPath()));
+            if (!chip.isCompiledCodeValid()) {
+                System.err.println("Warning: " + aotFile + " was compiled from a different ROM, interpreting");
+            }
+        }
+
+        Profiler profiler = null;
+        if (profileFile != null) {
+            profiler = new Profiler(sampleInterval);
+            chip.setProfiler(profiler);
+        }
+
+        HeadlessRunner runner = new HeadlessRunner(chip, ips, input);
+        if (recordRewind) {
+            runner.setRewind(new RewindBuffer());
+        }
+        runner.run(maxFrames, maxCycles);
+        runner.printReport(System.out, dumpMemory);
+
+        if (profiler != null) {
+            profiler.printReport(System.out, chip.getMemory(), 20);
+            try (Writer writer = new BufferedWriter(new FileWriter(profileFile))) {
+                profiler.writeCollapsedStacks(writer);
+            }
+        }
+
+        if (saveState != null) {
+            chip.saveState(state);
+            StateCodec.write(state, saveState);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package emu;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * A recorded play session: the seed and CPU rate it started with, and the
+ * input as frame-stamped events, one for every change.
+ *
+ * Binary layout (big endian):
+ * - magic "C8IN", version (u8), seed (u64), instructions per second (u32),
+ *   ROM length (u32), ROM CRC-32 (u32)
+ * - events until the end of the file: frames since the previous event (varint),
+ *   type (u8), then for EVENT_KEYS the key mask (u16), for EVENT_SPEED the
+ *   instructions per second (varint), nothing for EVENT_RESET
+ *
+ * Bit n of a key mask is CHIP-8 key n. An event of frame f is applied before
+ * frame f runs, frames being counted from 0 since the ROM was loaded.
+ */
+public class InputLog {
+
+    public static final int MAGIC = 0x4338494E;
+    public static final int VERSION = 1;
+
+    public static final int EVENT_KEYS = 0;
+    public static final int EVENT_RESET = 1;
+    public static final int EVENT_SPEED = 2;
+
+    private final long seed;
+    private final int instructionsPerSecond;
+    private final int romLength;
+    private final int romCrc;
+
+    private long[] frames = new long[64];
+    private int[] types = new int[64];
+    private int[] values = new int[64];
+    private int size;
+
+    public InputLog(long seed, int instructionsPerSecond, int romLength, int romCrc) {
+        this.seed = seed;
+        this.instructionsPerSecond = instructionsPerSecond;
+        this.romLength = romLength;
+        this.romCrc = romCrc;
+    }
+
+    /**
+     * Adds an event, frames must not decrease
+     */
+    public void add(long frame, int type, int value) {
+        if (size > 0 && frame < frames[size - 1]) {
+            throw new IllegalArgumentException("Event of frame " + frame + " after frame " + frames[size - 1]);
+        }
+        if (size == frames.length) {
+            frames = Arrays.copyOf(frames, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        frames[size] = frame;
+        types[size] = type;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getFrame(int event) {
+        return frames[event];
+    }
+
+    public int getType(int event) {
+        return types[event];
+    }
+
+    /**
+     * @return the key mask of EVENT_KEYS, the rate of EVENT_SPEED
+     */
+    public int getValue(int event) {
+        return values[event];
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    /**
+     * @return true if rom is the ROM the session was recorded with
+     */
+    public boolean matchesRom(byte[] rom) {
+        return rom.length == romLength && crc(rom) == romCrc;
+    }
+
+    static int crc(byte[] rom) {
+        CRC32 crc = new CRC32();
+        crc.update(rom);
+        return (int) crc.getValue();
+    }
+
+    static void writeHeader(DataOutput out, long seed, int instructionsPerSecond,
+                            int romLength, int romCrc) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(seed);
+        out.writeInt(instructionsPerSecond);
+        out.writeInt(romLength);
+        out.writeInt(romCrc);
+    }
+
+    static void writeEvent(DataOutput out, long frameDelta, int type, int value) throws IOException {
+        writeVarint(out, frameDelta);
+        out.writeByte(type);
+        switch (type) {
+            case EVENT_KEYS:
+                out.writeShort(value);
+                break;
+            case EVENT_SPEED:
+                writeVarint(out, value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            writeHeader(out, seed, instructionsPerSecond, romLength, romCrc);
+            long frame = 0;
+            for (int i = 0; i < size; i++) {
+                writeEvent(out, frames[i] - frame, types[i], values[i]);
+                frame = frames[i];
+            }
+        }
+    }
+
+    public static InputLog read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + ": not an input recording");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported recording version " + version);
+            }
+            InputLog log = new InputLog(in.readLong(), in.readInt(), in.readInt(), in.readInt());
+
+            long frame = 0;
+            int first;
+            while ((first = in.read()) != -1) {
+                frame += readVarint(in, first);
+                int type = in.readUnsignedByte();
+                switch (type) {
+                    case EVENT_KEYS:
+                        log.add(frame, type, in.readUnsignedShort());
+                        break;
+                    case EVENT_SPEED:
+                        log.add(frame, type, (int) readVarint(in, in.readUnsignedByte()));
+                        break;
+                    case EVENT_RESET:
+                        log.add(frame, type, 0);
+                        break;
+                    default:
+                        throw new IOException(file + ": invalid event type " + type);
+                }
+            }
+            return log;
+        }
+    }
+
+    //Varint: 7 bit per byte, il bit alto dice se segue un altro byte
+    private static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,58 @@
+package emu;
+
+import java.io.*;
+
+/**
+ * Records a play session in the {@link InputLog} format while it runs.
+ * Only the changes are written, and the file is flushed after every event,
+ * so the recording survives the window being closed.
+ */
+public class InputRecorder implements Closeable {
+
+    private final DataOutputStream output;
+    private long lastFrame;
+    private int lastKeys;
+    private int lastSpeed;
+
+    public InputRecorder(File file, long seed, int instructionsPerSecond, byte[] rom) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        InputLog.writeHeader(output, seed, instructionsPerSecond, rom.length, InputLog.crc(rom));
+        output.flush();
+        lastSpeed = instructionsPerSecond;
+    }
+
+    /**
+     * Key mask at the start of frame, written only if it changed
+     */
+    public void keys(long frame, int mask) throws IOException {
+        if (mask != lastKeys) {
+            event(frame, InputLog.EVENT_KEYS, mask);
+            lastKeys = mask;
+        }
+    }
+
+    /**
+     * CPU rate at the start of frame, written only if it changed
+     */
+    public void speed(long frame, int instructionsPerSecond) throws IOException {
+        if (instructionsPerSecond != lastSpeed) {
+            event(frame, InputLog.EVENT_SPEED, instructionsPerSecond);
+            lastSpeed = instructionsPerSecond;
+        }
+    }
+
+    public void reset(long frame) throws IOException {
+        event(frame, InputLog.EVENT_RESET, 0);
+    }
+
+    private void event(long frame, int type, int value) throws IOException {
+        InputLog.writeEvent(output, frame - lastFrame, type, value);
+        output.flush();
+        lastFrame = frame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
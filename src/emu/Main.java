@@ -1,65 +1,264 @@
 package emu;
 
 import chip.Chip;
+import chip.ChipState;
+import chip.CompiledProgram;
+import chip.ConsoleTraceSink;
+import chip.Debugger;
+import chip.Engine;
+import chip.RewindBuffer;
+import chip.StateCodec;
+import chip.TraceLevel;
 
-import javax.sound.sampled.*;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.locks.LockSupport;
 
 public class Main extends Thread {
 
     private Chip chip8;
     private ChipFrame frame;
+    private Scheduler scheduler;
+    private ChipState state = new ChipState();
+    private RewindBuffer rewind = new RewindBuffer();
+    private InputRecorder recorder;
+    private AudioOutput audio;
+    private final Debugger debugger = new Debugger();
+    private EmulatorStats stats;
 
     public Main() {
         chip8 = new Chip();
         chip8.init();
+
+        //-Dchip8.engine=switch|table sceglie come decodificare gli opcode
+        String engine = System.getProperty("chip8.engine");
+        if (engine != null) {
+            chip8.setEngine(Engine.valueOf(engine.toUpperCase()));
+        }
+
+        //-Dchip8.seed=N rende ripetibili i numeri casuali di CXNN
+        Long seed = Long.getLong("chip8.seed");
+        if (seed != null) {
+            chip8.setSeed(seed);
+        }
+
+        //-Dchip8.ips=N imposta la velocità della CPU (0 = illimitata)
+        scheduler = new Scheduler(chip8,
+                Integer.getInteger("chip8.ips", Scheduler.DEFAULT_INSTRUCTIONS_PER_SECOND));
+
+        //-Dchip8.trace=opcode|full stampa le istruzioni eseguite in console
+        String trace = System.getProperty("chip8.trace");
+        if (trace != null) {
+            chip8.setTrace(TraceLevel.valueOf(trace.toUpperCase()), new ConsoleTraceSink());
+        }
+
+        //-Dchip8.aot=file.class esegue la ROM compilata da AotCompiler
+        String aot = System.getProperty("chip8.aot");
+        if (aot != null) {
+            try {
+                chip8.setCompiledProgram(CompiledProgram.load(new File(aot).toPath()));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        //-Dchip8.audio=clip|square|none sceglie come suonare il beep
+        audio = AudioOutput.open(System.getProperty("chip8.audio", "clip"));
+
+        chip8.setDebugger(debugger);
+
         frame = new ChipFrame(chip8, this);
+
+        //Eventi JFR e MBean "chip8:type=Emulator" per seguire l'emulazione da fuori
+        stats = new EmulatorStats(scheduler, frame.getFramePipeline());
+        stats.register();
     }
 
     public void run() {
+        startRecording();
+        scheduler.resync();
         while (true) {
-            if (!frame.isEmulationPaused()) {
+            if (!frame.isEmulationPaused() && !debugger.isPaused()) {
+                stats.frameStarted();
                 if(frame.resetGame()){
                     chip8.reset();
                     frame.setGameAsReset();
+                    stats.reset();
                     System.out.println("Game Reset");
+                    if (recorder != null) {
+                        try {
+                            recorder.reset(scheduler.getFrames());
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            stopRecording("write error");
+                        }
+                    }
                 }
 
-                chip8.setKeyBuffer(frame.getKeyBuffer());
-                chip8.run();
+                handleStateRequests();
+
+                //Backspace tenuto premuto: un frame indietro per ogni frame
+                if (frame.isRewinding()) {
+                    stopRecording("rewind");
+                    boolean stepped = rewind.stepBack(chip8);
+                    if (stepped) {
+                        present();
+                    }
+                    stats.frameEnded(0, stepped);
+                    scheduler.waitForNextFrame();
+                    continue;
+                }
+
+                //Una sola lettura per frame, i tasti restano fermi per tutto il frame
+                int keys = frame.getKeyMask();
+                if (recorder != null) {
+                    recordFrame(keys);
+                }
+                chip8.setKeys(keys);
+                int executed = scheduler.runFrame();
 
                 if(chip8.isEmulationStopped()){
+                    FramePipeline frames = frame.getFramePipeline();
+                    System.out.println(frames.getPublishedFrames() + " frames published, "
+                            + frames.getDroppedFrames() + " dropped by the renderer");
+                    audio.close();
+                    stats.unregister();
                     return;
                 }
+                rewind.push(chip8);
 
-                if (chip8.needsSound()) {
-                    //Qui dovrebbe fare BEEP
-                    System.out.println("BEEP!");
-                    if (frame.isAudioEnabled()) {
-                        playSound();
-                    }
-                    chip8.removeSoundFlag();
-                }
-                if (chip8.needsRedraw()) {
-                    frame.repaint();
-                    chip8.removeDrawFlag();
+                //Vblank: suono e ridisegno una volta per frame
+                audio.vblank(frame.isAudioEnabled() ? chip8.getSoundTimer() : 0);
+                stats.vblank(chip8.getSoundTimer(), frame.isAudioEnabled());
+                boolean drawn = chip8.needsRedraw();
+                if (drawn) {
+                    present();
                 }
+                stats.frameEnded(executed, drawn);
 
-                try {
-                    Thread.sleep(2);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                //Fermi su FX0A con i timer a zero: finché la finestra non segnala
+                //un tasto (o un altro comando) nessun frame cambierebbe nulla
+                if (chip8.isWaitingForKey() && chip8.getDelayTimer() == 0 && chip8.getSoundTimer() == 0) {
+                    stats.pausedFor("Waiting for a key");
+                    LockSupport.park(this);
+                    scheduler.resync();
+                    continue;
                 }
+
+                scheduler.waitForNextFrame();
             } else {
-                try {
-                    Thread.sleep(2);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                stats.pausedFor(debugger.isPaused() ? "Debugger: " + debugger.getPauseReason() : "Menu");
+                //Fermi in un breakpoint: i timer non scorrono, si esegue solo lo step richiesto
+                if (debugger.isPaused()) {
+                    stopRecording("debugger");
+                    if (debugger.poll(chip8) && chip8.needsRedraw()) {
+                        present();
+                    }
                 }
+                //Svegliati da ChipFrame o dal debugger al prossimo comando
+                LockSupport.park(this);
+                scheduler.resync();
             }
         }
     }
 
+    /**
+     * Wakes the emulation thread while it is idle, paused or waiting for a
+     * key. Called by the window after every command and key event.
+     */
+    public void wakeUp() {
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Publishes the screen as it is at vblank and asks the EDT to draw it
+     */
+    private void present() {
+        frame.getFramePipeline().publish(chip8.getFrameBuffer());
+        stats.drawn(chip8.getFrameBuffer().isHires());
+        chip8.removeDrawFlag();
+        frame.repaint();
+    }
+
+    private void handleStateRequests() {
+        File file = frame.takeStateToSave();
+        if (file != null) {
+            try {
+                chip8.saveState(state);
+                StateCodec.write(state, file);
+                System.out.println("State saved to " + file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        file = frame.takeStateToLoad();
+        if (file != null) {
+            stopRecording("state loaded");
+            try {
+                StateCodec.read(file, state);
+                chip8.loadState(state);
+                System.out.println("State loaded from " + file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * -Dchip8.record=file records the session from here, see {@link InputLog}
+     */
+    private void startRecording() {
+        String file = System.getProperty("chip8.record");
+        if (file == null || frame.getGameFile() == null) {
+            return;
+        }
+        //Il seed deve essere noto per poter ripetere CXNN
+        long seed = Long.getLong("chip8.seed", System.nanoTime());
+        chip8.setSeed(seed);
+        try {
+            byte[] rom = Files.readAllBytes(frame.getGameFile().toPath());
+            recorder = new InputRecorder(new File(file), seed, scheduler.getInstructionsPerSecond(), rom);
+            System.out.println("Recording input to " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void recordFrame(int keys) {
+        long frameNumber = scheduler.getFrames();
+        int ips = scheduler.getInstructionsPerSecond();
+        if (ips == Scheduler.UNLIMITED) {
+            //Con velocità illimitata le istruzioni per frame dipendono dall'orologio
+            stopRecording("unlimited speed");
+            return;
+        }
+        try {
+            recorder.speed(frameNumber, ips);
+            recorder.keys(frameNumber, keys);
+        } catch (IOException e) {
+            e.printStackTrace();
+            stopRecording("write error");
+        }
+    }
+
+    /**
+     * The recording can't be replayed past a rewind or a loaded state
+     */
+    private void stopRecording(String reason) {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        recorder = null;
+        System.out.println("Recording stopped: " + reason);
+    }
+
     public static void main(String[] args) {
         Main main = new Main();
     }
@@ -68,30 +267,15 @@ public class Main extends Thread {
         return chip8;
     }
 
-    public ChipFrame getFrame() {
-        return frame;
+    public Scheduler getScheduler() {
+        return scheduler;
     }
 
-    public void playSound() {
-        new Thread("Audio thread") {
-            public void run() {
-                try {
-                    File audioFile = new File("./beep.wav");
-                    AudioInputStream stream;
-                    AudioFormat format;
-                    DataLine.Info info;
-                    Clip clip;
-
-                    stream = AudioSystem.getAudioInputStream(audioFile);
-                    format = stream.getFormat();
-                    info = new DataLine.Info(Clip.class, format);
-                    clip = (Clip) AudioSystem.getLine(info);
-                    clip.open(stream);
-                    clip.start();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }.start();
+    public Debugger getDebugger() {
+        return debugger;
+    }
+
+    public ChipFrame getFrame() {
+        return frame;
     }
 }
@@ -0,0 +1,15 @@
+package emu;
+
+/**
+ * No sound, for headless runs and machines without an audio line
+ */
+public class NullAudio implements AudioOutput {
+
+    @Override
+    public void vblank(int soundTimer) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,131 @@
+package emu;
+
+import chip.Chip;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a Chip with two independent clocks:
+ * - the CPU clock, a configurable number of instructions per second
+ * - the 60 Hz clock, which ticks the timers and marks the vblank
+ *
+ * Every frame executes instructionsPerSecond / 60 instructions (the remainder
+ * is carried over to the next frames), then ticks the timers.
+ * Frame deadlines are absolute System.nanoTime values, so the time lost
+ * oversleeping in one frame is recovered in the next one.
+ */
+public class Scheduler {
+
+    public static final int TIMER_HZ = 60;
+    public static final int UNLIMITED = 0;
+    public static final int DEFAULT_INSTRUCTIONS_PER_SECOND = 700;
+
+    public static final long FRAME_NANOS = 1_000_000_000L / TIMER_HZ;
+
+    //Se siamo indietro di troppi frame (es. dopo una pausa del GC)
+    //ripartiamo da adesso invece di eseguire i frame persi tutti insieme
+    private static final int MAX_FRAMES_BEHIND = 5;
+
+    //Con velocità illimitata controlliamo l'orologio ogni tot istruzioni
+    private static final int UNLIMITED_SLICE = 1024;
+
+    private final Chip chip;
+    private volatile int instructionsPerSecond;
+    private int cycleRemainder;
+    private long nextFrame;
+
+    private long frames;
+    private long instructions;
+
+    public Scheduler(Chip chip) {
+        this(chip, DEFAULT_INSTRUCTIONS_PER_SECOND);
+    }
+
+    public Scheduler(Chip chip, int instructionsPerSecond) {
+        this.chip = chip;
+        setInstructionsPerSecond(instructionsPerSecond);
+        resync();
+    }
+
+    /**
+     * @param instructionsPerSecond CPU rate, or {@link #UNLIMITED} to run as many
+     *                              instructions as fit in every frame
+     */
+    public void setInstructionsPerSecond(int instructionsPerSecond) {
+        if (instructionsPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid CPU rate: " + instructionsPerSecond);
+        }
+        this.instructionsPerSecond = instructionsPerSecond;
+    }
+
+    public int getInstructionsPerSecond() {
+        return instructionsPerSecond;
+    }
+
+    /**
+     * Restarts the frame clock from now. Call it after the emulation has been paused.
+     */
+    public void resync() {
+        nextFrame = System.nanoTime() + FRAME_NANOS;
+    }
+
+    /**
+     * Executes the instructions of one frame, then ticks the timers.
+     *
+     * @return the number of instructions executed
+     */
+    public int runFrame() {
+        return runFrame(Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #runFrame()}, but executes at most maxInstructions instructions.
+     * Used to stop a headless run after an exact number of cycles.
+     */
+    public int runFrame(long maxInstructions) {
+        int ips = instructionsPerSecond;
+        int executed;
+        if (ips == UNLIMITED) {
+            executed = runUntil(nextFrame);
+        } else {
+            int total = ips + cycleRemainder;
+            executed = chip.run((int) Math.min(total / TIMER_HZ, maxInstructions));
+            cycleRemainder = total % TIMER_HZ;
+        }
+
+        chip.tickTimers();
+        frames++;
+        instructions += executed;
+        return executed;
+    }
+
+    /**
+     * Waits for the deadline of the next frame.
+     */
+    public void waitForNextFrame() {
+        long now = System.nanoTime();
+        if (now - nextFrame > MAX_FRAMES_BEHIND * FRAME_NANOS) {
+            nextFrame = now;
+        }
+        while ((now = System.nanoTime()) < nextFrame) {
+            LockSupport.parkNanos(nextFrame - now);
+        }
+        nextFrame += FRAME_NANOS;
+    }
+
+    private int runUntil(long deadline) {
+        int executed = 0;
+        do {
+            executed += chip.run(UNLIMITED_SLICE);
+        } while (!chip.isEmulationStopped() && !chip.isWaitingForKey() && System.nanoTime() < deadline);
+        return executed;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getInstructions() {
+        return instructions;
+    }
+}
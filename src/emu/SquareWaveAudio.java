@@ -0,0 +1,67 @@
+package emu;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Synthesizes a square wave into a SourceDataLine while the sound timer is
+ * running, and silence otherwise, one frame of samples at every vblank.
+ *
+ * The samples are written only up to the free space of the line, so the
+ * emulation thread never waits for the sound card: if the emulation runs
+ * faster than real time the extra samples are dropped.
+ */
+public class SquareWaveAudio implements AudioOutput {
+
+    public static final int SAMPLE_RATE = 44100;
+    public static final int TONE_HZ = 440;
+    private static final int AMPLITUDE = 4000;
+    //Qualche frame di margine nella linea contro i ritardi del thread
+    private static final int BUFFERED_FRAMES = 4;
+
+    private final SourceDataLine line;
+    //Un frame di campioni a 16 bit, riusato a ogni vblank
+    private final byte[] samples = new byte[SAMPLE_RATE / Scheduler.TIMER_HZ * 2];
+    private final int halfPeriod = SAMPLE_RATE / TONE_HZ / 2;
+    //Posizione nell'onda, continua tra un frame e l'altro
+    private int phase;
+
+    public SquareWaveAudio() throws LineUnavailableException {
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+        line = AudioSystem.getSourceDataLine(format);
+        line.open(format, samples.length * BUFFERED_FRAMES);
+        line.start();
+    }
+
+    @Override
+    public void vblank(int soundTimer) {
+        int length = Math.min(samples.length, line.available()) & ~1;
+        if (length == 0) {
+            return;
+        }
+        if (soundTimer > 0) {
+            for (int i = 0; i < length; i += 2) {
+                int sample = phase < halfPeriod ? AMPLITUDE : -AMPLITUDE;
+                samples[i] = (byte) sample;
+                samples[i + 1] = (byte) (sample >> 8);
+                if (++phase == halfPeriod * 2) {
+                    phase = 0;
+                }
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                samples[i] = 0;
+            }
+            phase = 0;
+        }
+        line.write(samples, 0, length);
+    }
+
+    @Override
+    public void close() {
+        line.stop();
+        line.close();
+    }
+}